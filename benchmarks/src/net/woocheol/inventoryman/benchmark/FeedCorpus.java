@@ -0,0 +1,263 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * The data of the benchmarks. The feeds are read from the corpus folder, which holds the generated ones (see main()) and can also hold
+ * real-world feeds. The other data is generated, always the same for a given size.
+ */
+public class FeedCorpus {
+
+    public static final String RSS = "rss", ATOM = "atom", RDF = "rdf";
+
+    public static final String CORPUS_DIR_PROPERTY = "corpus.dir";
+    private static final String DEFAULT_CORPUS_DIR = "corpus";
+    private static final int[] CORPUS_SIZES = {10, 100};
+
+    private static final String[] WORDS = {"feed", "reader", "release", "android", "update", "performance", "news", "the", "of", "and",
+            "a", "to", "in", "is", "it", "&amp;", "caf&#233;", "&quot;quoted&quot;", "2013", "version"};
+
+    private static final String[] DAYS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    private final Random mRandom;
+
+    private FeedCorpus(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @return a UTF-8 feed of this format with entryCount entries, from the most recent to the oldest
+     */
+    public static byte[] generate(String format, int entryCount) {
+        FeedCorpus corpus = new FeedCorpus(format.hashCode() * 31L + entryCount);
+        StringBuilder feed = new StringBuilder(entryCount * 2048);
+
+        feed.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        if (ATOM.equals(format)) {
+            feed.append("<feed xmlns=\"http://www.w3.org/2005/Atom\"><title>Generated feed</title>")
+                    .append("<link rel=\"alternate\" href=\"http://example.com/\"/><updated>2013-05-01T12:00:00Z</updated>\n");
+        } else if (RDF.equals(format)) {
+            feed.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns=\"http://purl.org/rss/1.0/\" ")
+                    .append("xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><channel><title>Generated feed</title>")
+                    .append("<link>http://example.com/</link></channel>\n");
+        } else {
+            feed.append("<rss version=\"2.0\" xmlns:content=\"http://purl.org/rss/1.0/modules/content/\" ")
+                    .append("xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><channel><title>Generated feed</title>")
+                    .append("<link>http://example.com/</link><ttl>60</ttl>\n");
+        }
+
+        long date = 1367409600000l; // 2013-05-01T12:00:00Z
+        for (int i = 0; i < entryCount; i++) {
+            String title = corpus.sentence(4 + corpus.mRandom.nextInt(8));
+            String link = "http://example.com/" + (entryCount - i) + "/" + corpus.mRandom.nextInt(100000);
+            String html = escape(corpus.html());
+            date -= 1 + corpus.mRandom.nextInt(7200000);
+
+            if (ATOM.equals(format)) {
+                feed.append("<entry><title type=\"html\">").append(title).append("</title><link rel=\"alternate\" href=\"").append(link)
+                        .append("\"/><id>tag:example.com,2013:").append(i).append("</id><updated>").append(isoDate(date))
+                        .append("</updated><author><name>Author ").append(i % 5).append("</name></author><content type=\"html\">")
+                        .append(html).append("</content></entry>\n");
+            } else if (RDF.equals(format)) {
+                feed.append("<item rdf:about=\"").append(link).append("\"><title>").append(title).append("</title><link>").append(link)
+                        .append("</link><dc:date>").append(isoDate(date)).append("</dc:date><dc:creator>Author ").append(i % 5)
+                        .append("</dc:creator><description>").append(html).append("</description></item>\n");
+            } else {
+                feed.append("<item><title>").append(title).append("</title><link>").append(link)
+                        .append("</link><guid isPermaLink=\"false\">").append(link).append("</guid><pubDate>").append(rfc822Date(date))
+                        .append("</pubDate><dc:creator>Author ").append(i % 5).append("</dc:creator><description>")
+                        .append(escape(corpus.sentence(20))).append("</description>")
+                        .append("<content:encoded><![CDATA[").append(corpus.html()).append("]]></content:encoded></item>\n");
+            }
+        }
+
+        feed.append(ATOM.equals(format) ? "</feed>" : RDF.equals(format) ? "</rdf:RDF>" : "</channel></rss>");
+        try {
+            return feed.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the html content of an entry, with the markup the sanitizer has to deal with
+     */
+    public static String generateHtml(long seed) {
+        return new FeedCorpus(seed).html();
+    }
+
+    /**
+     * @return the dates of count entries, in the formats found in the feeds
+     */
+    public static String[] generateDates(int count) {
+        FeedCorpus corpus = new FeedCorpus(count);
+        String[] dates = new String[count];
+        long date = 1367409600000l;
+        for (int i = 0; i < count; i++) {
+            date -= corpus.mRandom.nextInt(86400000);
+            switch (i % 4) {
+                case 0:
+                    dates[i] = rfc822Date(date);
+                    break;
+                case 1:
+                    dates[i] = isoDate(date);
+                    break;
+                case 2:
+                    dates[i] = isoDate(date).replace("Z", "+02:00");
+                    break;
+                default:
+                    dates[i] = rfc822Date(date).replace("GMT", "+0000");
+                    break;
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * @return the texts of count entries, made of the same words as the feeds
+     */
+    public static String[] generateTexts(int count, int wordCount) {
+        FeedCorpus corpus = new FeedCorpus(count * 31L + wordCount);
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            texts[i] = corpus.sentence(wordCount);
+        }
+        return texts;
+    }
+
+    /**
+     * @return the content of this file of the corpus folder (see CORPUS_DIR_PROPERTY)
+     */
+    public static byte[] load(String fileName) throws IOException {
+        return read(new File(System.getProperty(CORPUS_DIR_PROPERTY, DEFAULT_CORPUS_DIR), fileName));
+    }
+
+    /**
+     * Writes the bundled corpus: each format with 10 and 100 entries, in the folder given as argument
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : DEFAULT_CORPUS_DIR);
+        dir.mkdirs();
+        for (String format : new String[]{RSS, ATOM, RDF}) {
+            for (int entryCount : CORPUS_SIZES) {
+                OutputStream output = new FileOutputStream(new File(dir, format + '-' + entryCount + ".xml"));
+                try {
+                    output.write(generate(format, entryCount));
+                } finally {
+                    output.close();
+                }
+            }
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = inputStream.read(buffer)) > 0) {
+                output.write(buffer, 0, n);
+            }
+            return output.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private String sentence(int wordCount) {
+        StringBuilder sentence = new StringBuilder(wordCount * 8);
+        for (int i = 0; i < wordCount; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[mRandom.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+
+    private String html() {
+        StringBuilder html = new StringBuilder(2048);
+        int paragraphCount = 1 + mRandom.nextInt(6);
+        for (int i = 0; i < paragraphCount; i++) {
+            html.append("<p class=\"text\" style=\"margin: 0\">").append(sentence(10 + mRandom.nextInt(40)));
+            switch (mRandom.nextInt(6)) {
+                case 0:
+                    html.append(" <a href=\"http://example.com/link/").append(i).append("\">").append(sentence(3)).append("</a>");
+                    break;
+                case 1:
+                    html.append(" <img src=\"//cdn.example.com/images/picture ").append(mRandom.nextInt(1000))
+                            .append(".jpg\" width=\"640\" height=\"480\" />");
+                    break;
+                case 2:
+                    html.append("<script type=\"text/javascript\">track(").append(i).append(");</script>");
+                    break;
+                case 3:
+                    html.append("<div class=\"mf-viral\"><table border=\"0\"><tr><td>share</td></tr></table></div>");
+                    break;
+                case 4:
+                    html.append("<!-- comment ").append(i).append(" --><br>");
+                    break;
+                default:
+                    html.append(" <strong>").append(sentence(2)).append("</strong>");
+                    break;
+            }
+            html.append("</p>\n");
+        }
+        if (mRandom.nextInt(4) == 0) {
+            html.append("<div><div>").append(sentence(5)); // not closed
+        }
+        return html.toString();
+    }
+
+    private static String escape(String html) {
+        return html.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String isoDate(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(date);
+        return String.format(Locale.US, "%04d-%02d-%02dT%02d:%02d:%02dZ", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY),
+                calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND));
+    }
+
+    private static String rfc822Date(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(date);
+        return String.format(Locale.US, "%s, %02d %s %04d %02d:%02d:%02d GMT", DAYS[(calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7],
+                calendar.get(Calendar.DAY_OF_MONTH), MONTHS[calendar.get(Calendar.MONTH)],
+                calendar.get(Calendar.YEAR), calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE),
+                calendar.get(Calendar.SECOND));
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.woocheol.inventoryman.parser.FeedDateParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing of the dates of the entries, in the RFC 822 and ISO 8601 variants found in the feeds. An operation is one date.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FeedDateParserBenchmark {
+
+    private static final int DATE_COUNT = 1024; // a power of 2
+
+    private String[] mDates;
+    private FeedDateParser mParser;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mDates = FeedCorpus.generateDates(DATE_COUNT);
+        mParser = new FeedDateParser("1");
+    }
+
+    @Benchmark
+    public long parse() {
+        return mParser.parse(mDates[mIndex++ & (DATE_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import net.woocheol.inventoryman.parser.FeedFilters;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Filtering of the entries with keywords on their title and content, plus one regular expression. The keywords are never found, so all
+ * of them are always searched for. An operation is one entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FeedFiltersBenchmark {
+
+    private static final int ENTRY_COUNT = 256; // a power of 2
+
+    @Param({"1", "10", "100"})
+    public int keywords;
+
+    private FeedFilters mFilters;
+    private String[] mTitles;
+    private String[] mContents;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        ArrayList<String> titleKeywords = new ArrayList<String>(keywords);
+        ArrayList<String> contentKeywords = new ArrayList<String>(keywords);
+        for (int i = 0; i < keywords; i++) {
+            titleKeywords.add("missing title keyword " + i);
+            contentKeywords.add("missing content keyword " + i);
+        }
+        ArrayList<Pattern> patterns = new ArrayList<Pattern>(1);
+        patterns.add(Pattern.compile("^\\[sponsored\\]"));
+
+        mFilters = new FeedFilters(titleKeywords, contentKeywords, patterns, new ArrayList<Pattern>(0));
+        mTitles = FeedCorpus.generateTexts(ENTRY_COUNT, 8);
+        mContents = new String[ENTRY_COUNT];
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            mContents[i] = FeedCorpus.generateHtml(i);
+        }
+    }
+
+    @Benchmark
+    public boolean isEntryFiltered() {
+        int index = mIndex++ & (ENTRY_COUNT - 1);
+        return mFilters.isEntryFiltered(mTitles[index], mContents[index]);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import net.woocheol.inventoryman.parser.FeedParser;
+import net.woocheol.inventoryman.parser.FeedSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of a whole feed of the corpus as done at each refresh by RssAtomParser, without the database: the entries go to a sink which
+ * only consumes them. Any other feed saved in the corpus folder can be given with -p feed=... An operation is one feed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FeedParserBenchmark {
+
+    private static final String FEED_URL = "http://example.com/feed.xml";
+    private static final String IMAGE_URL_PREFIX = "file:///data/data/net.woocheol.inventoryman/cache/images/##ID##";
+
+    @Param({"rss-10.xml", "rss-100.xml", "atom-10.xml", "atom-100.xml", "rdf-10.xml", "rdf-100.xml"})
+    public String feed;
+
+    @Param({"false", "true"})
+    public boolean fetchImages;
+
+    private byte[] mFeed;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFeed = FeedCorpus.load(feed);
+    }
+
+    /**
+     * First refresh: all the entries are new, decoded and inserted
+     */
+    @Benchmark
+    public int parseNewEntries(Blackhole blackhole) throws Exception {
+        return parse(mFeed, new ConsumingSink(blackhole, false), fetchImages);
+    }
+
+    /**
+     * Later refreshes: all the entries are known and unchanged, only their hash is computed
+     */
+    @Benchmark
+    public int parseUnchangedEntries(Blackhole blackhole) throws Exception {
+        return parse(mFeed, new ConsumingSink(blackhole, true), fetchImages);
+    }
+
+    private static int parse(byte[] feed, FeedSink sink, boolean fetchImages) throws Exception {
+        FeedParser parser = new FeedParser(sink, "1", FEED_URL, new Date(0), new Date(0));
+        if (fetchImages) {
+            parser.setImageUrlPrefix(IMAGE_URL_PREFIX);
+        }
+        parser.parse(new ByteArrayInputStream(feed), null);
+        return parser.getNewCount();
+    }
+
+    private static class ConsumingSink implements FeedSink {
+        private final Blackhole mBlackhole;
+        private final boolean mKnownEntries;
+
+        ConsumingSink(Blackhole blackhole, boolean knownEntries) {
+            mBlackhole = blackhole;
+            mKnownEntries = knownEntries;
+        }
+
+        @Override
+        public boolean isEntryFiltered(String title, String content) {
+            return false;
+        }
+
+        @Override
+        public boolean isKnownEntry(String uid) {
+            return mKnownEntries;
+        }
+
+        @Override
+        public boolean isUnchangedEntry(String uid, long contentHash) {
+            mBlackhole.consume(contentHash);
+            return true;
+        }
+
+        @Override
+        public void insertEntry(FeedParser.Entry entry) {
+            mBlackhole.consume(entry);
+        }
+
+        @Override
+        public void updateEntry(FeedParser.Entry entry) {
+            mBlackhole.consume(entry);
+        }
+
+        @Override
+        public void onFeedParsed(FeedParser parser) {
+            mBlackhole.consume(parser.getRealLastUpdate());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import net.woocheol.inventoryman.utils.HtmlSanitizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cleaning of the html of the entries, as done for each new entry by the parser and for each mobilized page by
+ * FetcherService.improveHtmlContent(). An operation is one entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HtmlSanitizerBenchmark {
+
+    private static final int CONTENT_COUNT = 256; // a power of 2
+    private static final String IMAGE_URL_PREFIX = "file:///data/data/net.woocheol.inventoryman/cache/images/##ID##";
+
+    private String[] mContents;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mContents = new String[CONTENT_COUNT];
+        for (int i = 0; i < CONTENT_COUNT; i++) {
+            mContents[i] = FeedCorpus.generateHtml(i);
+        }
+    }
+
+    @Benchmark
+    public String sanitize() {
+        return HtmlSanitizer.sanitize(nextContent(), IMAGE_URL_PREFIX, null);
+    }
+
+    @Benchmark
+    public ArrayList<String> sanitizeWithImages() {
+        ArrayList<String> images = new ArrayList<String>(4);
+        HtmlSanitizer.sanitize(nextContent(), IMAGE_URL_PREFIX, images);
+        return images;
+    }
+
+    private String nextContent() {
+        return mContents[mIndex++ & (CONTENT_COUNT - 1)];
+    }
+}
@@ -20,6 +20,7 @@
 
 package net.woocheol.inventoryman;
 
+import net.woocheol.inventoryman.parser.FeedParser;
 import android.app.NotificationManager;
 import android.content.Context;
 
@@ -61,7 +62,7 @@ public final class Constants {
     public static final String TRUE = "true";
     public static final String FALSE = "false";
 
-    public static final String ENCLOSURE_SEPARATOR = "[@]"; // exactly three characters!
+    public static final String ENCLOSURE_SEPARATOR = FeedParser.ENCLOSURE_SEPARATOR;
 
     public static final String HTML_QUOT = "&quot;";
     public static final String QUOT = "\"";
@@ -45,6 +45,7 @@
 package net.woocheol.inventoryman.activity;
 
 import java.util.Date;
+import java.util.regex.Pattern;
 
 import net.woocheol.inventoryman.Constants;
 import net.woocheol.inventoryman.R;
@@ -52,6 +53,7 @@ import net.woocheol.inventoryman.provider.FeedData;
 import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
 import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
 import net.woocheol.inventoryman.provider.FeedData.TaskColumns;
+import net.woocheol.inventoryman.provider.EntryNavigator;
 import net.woocheol.inventoryman.provider.FeedDataContentProvider;
 import net.woocheol.inventoryman.service.FetcherService;
 import net.woocheol.inventoryman.utils.PrefUtils;
@@ -69,7 +71,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.ConnectivityManager;
@@ -77,7 +78,10 @@ import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.text.format.DateFormat;
+import android.util.LruCache;
 import android.view.GestureDetector;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -100,7 +104,6 @@ import android.widget.ViewFlipper;
 public class EntryActivity extends ProgressActivity {
 
     private static final String SAVE_INSTANCE_SCROLL_PERCENTAGE = "scrollPercentage";
-    private static final String SAVE_INSTANCE_ENTRIES_IDS = "entriesIds";
     private static final String SAVE_INSTANCE_IS_FULLSCREEN = "isFullscreen";
 
     private static final long ANIM_DURATION = 250;
@@ -116,7 +119,7 @@ public class EntryActivity extends ProgressActivity {
     }
 
     private static final String TEXT_HTML = "text/html";
-    private static final String HTML_IMG_REGEX = "(?i)<[/]?[ ]?img(.|\n)*?>";
+    private static final Pattern HTML_IMG_PATTERN = Pattern.compile("(?i)<[/]?[ ]?img(.|\n)*?>");
 
     private static final String BACKGROUND_COLOR = PrefUtils.getBoolean(PrefUtils.LIGHT_THEME, true) ? "#f6f6f6" : "#181b1f";
     private static final String TEXT_COLOR = PrefUtils.getBoolean(PrefUtils.LIGHT_THEME, true) ? "#000000" : "#C0C0C0";
@@ -156,13 +159,27 @@ public class EntryActivity extends ProgressActivity {
     private long _id = -1;
     private long _nextId = -1;
     private long _previousId = -1;
-    private long[] mEntriesIds;
+    private EntryNavigator mEntryNavigator;
+
+    private static final int PREPARED_ENTRIES_CACHE_SIZE = 4;
+
+    // What is displayed for an entry, prepared in background for the neighbors of the current one
+    private static class PreparedEntry {
+        long date;
+        int feedId;
+        boolean isRead, favorite, preferFullText;
+        String title, feedTitle, link, enclosure, html;
+        Bitmap icon;
+    }
+
+    private final LruCache<Long, PreparedEntry> mPreparedEntries = new LruCache<Long, PreparedEntry>(PREPARED_ENTRIES_CACHE_SIZE);
+    private HandlerThread mPrefetchThread;
+    private Handler mPrefetchHandler;
 
     private Uri uri;
     private Uri parentUri;
     private int feedId;
     private boolean favorite, preferFullText = true;
-    private byte[] iconBytes = null;
 
     private WebView webView;
     private WebView webView0; // only needed for the animation
@@ -230,6 +247,10 @@ public class EntryActivity extends ProgressActivity {
 
         setContentView(R.layout.entry);
 
+        mPrefetchThread = new HandlerThread("EntryPrefetch", Process.THREAD_PRIORITY_BACKGROUND);
+        mPrefetchThread.start();
+        mPrefetchHandler = new Handler(mPrefetchThread.getLooper());
+
         gestureDetector = new GestureDetector(this, new GestureDetector.SimpleOnGestureListener() {
             @Override
             public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
@@ -292,7 +313,6 @@ public class EntryActivity extends ProgressActivity {
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         webView.saveState(outState);
-        outState.putLongArray(SAVE_INSTANCE_ENTRIES_IDS, mEntriesIds);
         outState.putBoolean(SAVE_INSTANCE_IS_FULLSCREEN, !getActionBar().isShowing());
 
         float positionTopView = webView.getTop();
@@ -306,7 +326,6 @@ public class EntryActivity extends ProgressActivity {
     @Override
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
-        mEntriesIds = savedInstanceState.getLongArray(SAVE_INSTANCE_ENTRIES_IDS);
         mScrollPercentage = savedInstanceState.getFloat(SAVE_INSTANCE_SCROLL_PERCENTAGE);
         if (savedInstanceState.getBoolean(SAVE_INSTANCE_IS_FULLSCREEN)) {
             toggleFullScreen();
@@ -329,6 +348,8 @@ public class EntryActivity extends ProgressActivity {
         } catch (Exception unused) { // Seems possible to have an NPE here on some phones...
         }
 
+        // The preferences may have changed the rendering in the meantime
+        mPreparedEntries.evictAll();
         reload(false);
     }
 
@@ -344,6 +365,12 @@ public class EntryActivity extends ProgressActivity {
         getContentResolver().unregisterContentObserver(mTasksObserver);
     }
 
+    @Override
+    protected void onDestroy() {
+        mPrefetchThread.quit();
+        super.onDestroy();
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
@@ -372,86 +399,47 @@ public class EntryActivity extends ProgressActivity {
 
         _id = newId;
 
-        ContentResolver cr = getContentResolver();
-        Cursor entryCursor = cr.query(uri, null, null, null, null);
+        // Use the prefetched version if any, it is used only once as the entry can change afterwards
+        PreparedEntry entry = forceUpdate ? null : mPreparedEntries.remove(newId);
+        if (forceUpdate) {
+            mPreparedEntries.evictAll();
+        }
+        if (entry == null) {
+            entry = prepareEntry(uri, newId, forceUpdate && !preferFullText);
+        }
 
-        if (entryCursor.moveToFirst()) {
-            String contentText = entryCursor.getString(mobilizedHtmlPosition);
-            if (contentText == null || (forceUpdate && !preferFullText)) {
-                preferFullText = false;
-                contentText = entryCursor.getString(abstractPosition);
-            } else {
-                preferFullText = true;
-            }
-            if (contentText == null) {
-                contentText = "";
-            }
+        if (entry != null) {
+            preferFullText = entry.preferFullText;
 
-            // Need to be done before the "mark as read" action
-            setupNavigationButton();
+            setupNavigationButton(entry.date);
 
             // Mark the article as read
-            if (entryCursor.getInt(isReadPosition) != 1) {
-                if (cr.update(uri, FeedData.getReadContentValues(), null, null) > 0) {
-                    FeedDataContentProvider.notifyAllFromEntryUri(uri, false);
-                }
-            }
-
-            int _feedId = entryCursor.getInt(feedIdPosition);
-            if (feedId != _feedId) {
-                if (feedId != 0) {
-                    iconBytes = null; // triggers re-fetch of the icon
-                }
-                feedId = _feedId;
-            }
-
-            title = entryCursor.getString(titlePosition);
-            Cursor cursor = cr.query(FeedColumns.CONTENT_URI(feedId), new String[]{FeedColumns.NAME, FeedColumns.URL}, null, null, null);
-            if (cursor.moveToFirst()) {
-                setTitle(cursor.isNull(0) ? cursor.getString(1) : cursor.getString(0));
-            } else { // fallback, should not be possible
-                setTitle(title);
-            }
-            cursor.close();
-
-            if (iconBytes == null || iconBytes.length == 0) {
-                Cursor iconCursor = cr.query(FeedColumns.CONTENT_URI(Integer.toString(feedId)),
-                        new String[]{FeedColumns._ID, FeedColumns.ICON}, null, null, null);
-
-                if (iconCursor.moveToFirst()) {
-                    iconBytes = iconCursor.getBlob(1);
-                }
-                iconCursor.close();
+            if (!entry.isRead) {
+                final Uri entryUri = uri;
+                mPrefetchHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (getContentResolver().update(entryUri, FeedData.getReadContentValues(), null, null) > 0) {
+                            FeedDataContentProvider.notifyAllFromEntryUri(entryUri, false);
+                        }
+                    }
+                });
             }
 
-            if (iconBytes != null && iconBytes.length > 0) {
-                int bitmapSizeInDip = UiUtils.dpToPixel(24);
-                Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
-                if (bitmap != null) {
-                    if (bitmap.getHeight() != bitmapSizeInDip) {
-                        bitmap = Bitmap.createScaledBitmap(bitmap, bitmapSizeInDip, bitmapSizeInDip, false);
-                    }
+            feedId = entry.feedId;
+            title = entry.title;
+            setTitle(entry.feedTitle != null ? entry.feedTitle : title);
 
-                    getActionBar().setIcon(new BitmapDrawable(getResources(), bitmap));
-                } else {
-                    getActionBar().setIcon(R.drawable.icon);
-                }
+            if (entry.icon != null) {
+                getActionBar().setIcon(new BitmapDrawable(getResources(), entry.icon));
             } else {
                 getActionBar().setIcon(R.drawable.icon);
             }
 
-            favorite = entryCursor.getInt(isFavoritePosition) == 1;
+            favorite = entry.favorite;
             invalidateOptionsMenu();
 
-            // loadData does not recognize the encoding without correct html-header
-            boolean localPictures = contentText.contains(Constants.IMAGEID_REPLACEMENT);
-
-            if (localPictures) {
-                contentText = contentText.replace(Constants.IMAGEID_REPLACEMENT, _id + Constants.IMAGEFILE_IDSEPARATOR);
-            }
-
             if (PrefUtils.getBoolean(PrefUtils.DISABLE_PICTURES, false)) {
-                contentText = contentText.replaceAll(HTML_IMG_REGEX, "");
                 webView.getSettings().setBlockNetworkImage(true);
             } else {
                 if (webView.getSettings().getBlockNetworkImage()) {
@@ -461,21 +449,13 @@ public class EntryActivity extends ProgressActivity {
                 }
             }
 
-            String author = entryCursor.getString(authorPosition);
-            long timestamp = entryCursor.getLong(datePosition);
-            link = entryCursor.getString(linkPosition);
-            enclosure = entryCursor.getString(enclosurePosition);
+            link = entry.link;
+            enclosure = entry.enclosure;
 
-            // String baseUrl = "";
-            // try {
-            // URL url = new URL(link);
-            // baseUrl = url.getProtocol() + "://" + url.getHost();
-            // } catch (MalformedURLException ignored) {
-            // }
-            webView.loadDataWithBaseURL("", generateHtmlContent(title, link, contentText, enclosure, author, timestamp), TEXT_HTML, Constants.UTF8,
-                    null); // do not put 'null' to the base url...
+            webView.loadDataWithBaseURL("", entry.html, TEXT_HTML, Constants.UTF8, null); // do not put 'null' to the base url...
 
             // Listen the mobilizing task
+            ContentResolver cr = getContentResolver();
             long mobilizingTaskId = FetcherService.getMobilizingTaskId(_id);
             if (mobilizingTaskId != -1) {
                 getProgressBar().setVisibility(View.VISIBLE);
@@ -485,12 +465,91 @@ public class EntryActivity extends ProgressActivity {
                 getProgressBar().setVisibility(View.GONE);
                 cr.unregisterContentObserver(mTasksObserver);
             }
+
+            prefetchEntry(_previousId);
+            prefetchEntry(_nextId);
+        }
+    }
+
+    /**
+     * Prepares the neighbors of the current entry in background, so they are displayed at once when the user switches to them
+     */
+    private void prefetchEntry(final long entryId) {
+        if (entryId == -1 || mPreparedEntries.get(entryId) != null) {
+            return;
         }
 
+        final Uri entryUri = parentUri.buildUpon().appendPath(String.valueOf(entryId)).build();
+        mPrefetchHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPreparedEntries.get(entryId) == null) {
+                    PreparedEntry entry = prepareEntry(entryUri, entryId, false);
+                    if (entry != null) {
+                        mPreparedEntries.put(entryId, entry);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads everything needed to display an entry and builds its final html. Does not touch the views, so it can run in any thread.
+     */
+    private PreparedEntry prepareEntry(Uri entryUri, long entryId, boolean useAbstract) {
+        ContentResolver cr = getContentResolver();
+        Cursor entryCursor = cr.query(entryUri, null, null, null, null);
+
+        PreparedEntry entry = null;
+        if (entryCursor.moveToFirst()) {
+            entry = new PreparedEntry();
+
+            String contentText = entryCursor.getString(mobilizedHtmlPosition);
+            if (contentText == null || useAbstract) {
+                entry.preferFullText = false;
+                contentText = entryCursor.getString(abstractPosition);
+            } else {
+                entry.preferFullText = true;
+            }
+            if (contentText == null) {
+                contentText = "";
+            }
+
+            entry.date = entryCursor.getLong(datePosition);
+            entry.isRead = entryCursor.getInt(isReadPosition) == 1;
+            entry.feedId = entryCursor.getInt(feedIdPosition);
+            entry.title = entryCursor.getString(titlePosition);
+            entry.favorite = entryCursor.getInt(isFavoritePosition) == 1;
+            entry.link = entryCursor.getString(linkPosition);
+            entry.enclosure = entryCursor.getString(enclosurePosition);
+
+            Cursor cursor = cr.query(FeedColumns.CONTENT_URI(entry.feedId), new String[]{FeedColumns.NAME, FeedColumns.URL}, null, null, null);
+            if (cursor.moveToFirst()) {
+                entry.feedTitle = cursor.isNull(0) ? cursor.getString(1) : cursor.getString(0);
+            }
+            cursor.close();
+
+            entry.icon = UiUtils.getFaviconBitmap(entry.feedId, UiUtils.dpToPixel(UiUtils.FAVICON_SIZE_IN_DP));
+
+            // loadData does not recognize the encoding without correct html-header
+            if (contentText.contains(Constants.IMAGEID_REPLACEMENT)) {
+                contentText = contentText.replace(Constants.IMAGEID_REPLACEMENT, entryId + Constants.IMAGEFILE_IDSEPARATOR);
+            }
+
+            if (PrefUtils.getBoolean(PrefUtils.DISABLE_PICTURES, false)) {
+                contentText = HTML_IMG_PATTERN.matcher(contentText).replaceAll("");
+            }
+
+            entry.html = generateHtmlContent(entry.title, entry.link, contentText, entry.enclosure, entryCursor.getString(authorPosition), entry.date,
+                    entry.preferFullText);
+        }
         entryCursor.close();
+
+        return entry;
     }
 
-    private String generateHtmlContent(String title, String link, String abstractText, String enclosure, String author, long timestamp) {
+    private String generateHtmlContent(String title, String link, String abstractText, String enclosure, String author, long timestamp,
+                                       boolean preferFullText) {
         StringBuilder content = new StringBuilder();
 
         int fontSize = Integer.parseInt(PrefUtils.getString(PrefUtils.FONT_SIZE, "0"));
@@ -599,41 +658,17 @@ public class EntryActivity extends ProgressActivity {
         }
     }
 
-    private void setupNavigationButton() {
-        _previousId = -1;
-        backBtn.setVisibility(View.GONE);
-        _nextId = -1;
-        forwardBtn.setVisibility(View.GONE);
-
-        if (mEntriesIds == null) {
-            Cursor cursor = getContentResolver().query(parentUri, EntryColumns.PROJECTION_ID,
-                    PrefUtils.getBoolean(PrefUtils.SHOW_READ, true) || EntryColumns.FAVORITES_CONTENT_URI.equals(parentUri) ? null
-                            : EntryColumns.WHERE_UNREAD, null, EntryColumns.DATE + Constants.DB_DESC);
-
-            mEntriesIds = new long[cursor.getCount()];
-            int i = 0;
-            while (cursor.moveToNext()) {
-                mEntriesIds[i++] = cursor.getLong(0);
-            }
-
-            cursor.close();
+    private void setupNavigationButton(long date) {
+        if (mEntryNavigator == null) {
+            mEntryNavigator = new EntryNavigator(parentUri, PrefUtils.getBoolean(PrefUtils.SHOW_READ, true)
+                    || EntryColumns.FAVORITES_CONTENT_URI.equals(parentUri) ? null : EntryColumns.WHERE_UNREAD);
         }
 
-        for (int i = 0; i < mEntriesIds.length; ++i) {
-            if (_id == mEntriesIds[i]) {
-                if (i > 0) {
-                    _previousId = mEntriesIds[i - 1];
-                    backBtn.setVisibility(View.VISIBLE);
-                }
-
-                if (i < mEntriesIds.length - 1) {
-                    _nextId = mEntriesIds[i + 1];
-                    forwardBtn.setVisibility(View.VISIBLE);
-                }
-
-                break;
-            }
-        }
+        long[] neighbors = mEntryNavigator.getNeighbors(_id, date);
+        _previousId = neighbors[0];
+        backBtn.setVisibility(_previousId != -1 ? View.VISIBLE : View.GONE);
+        _nextId = neighbors[1];
+        forwardBtn.setVisibility(_nextId != -1 ? View.VISIBLE : View.GONE);
     }
 
     private void switchEntry(long id, Animation inAnimation, Animation outAnimation) {
@@ -37,7 +37,6 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
@@ -235,13 +234,8 @@ public class MainActivity extends ProgressActivity implements LoaderManager.Load
                 } else {
                     byte[] iconBytes = mDrawerAdapter.getItemIcon(position);
                     if (iconBytes != null && iconBytes.length > 0) {
-                        int bitmapSizeInDip = UiUtils.dpToPixel(24);
-                        Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
+                        Bitmap bitmap = UiUtils.getFaviconBitmap(feedOrGroupId, iconBytes, UiUtils.dpToPixel(UiUtils.FAVICON_SIZE_IN_DP));
                         if (bitmap != null) {
-                            if (bitmap.getHeight() != bitmapSizeInDip) {
-                                bitmap = Bitmap.createScaledBitmap(bitmap, bitmapSizeInDip, bitmapSizeInDip, false);
-                            }
-
                             mIcon = new BitmapDrawable(getResources(), bitmap);
                         }
                     }
@@ -288,10 +282,7 @@ public class MainActivity extends ProgressActivity implements LoaderManager.Load
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         CursorLoader cursorLoader = new CursorLoader(this, FeedData.FeedColumns.GROUPED_FEEDS_CONTENT_URI, new String[]{FeedData.FeedColumns._ID, FeedData.FeedColumns.URL,
                 FeedData.FeedColumns.NAME, FeedData.FeedColumns.IS_GROUP, FeedData.FeedColumns.GROUP_ID, FeedData.FeedColumns.ICON, FeedData.FeedColumns.LAST_UPDATE, FeedData.FeedColumns.ERROR,
-                "(SELECT COUNT(*) FROM " + FeedData.EntryColumns.TABLE_NAME + " WHERE " + FeedData.EntryColumns.IS_READ + " IS NULL AND " + FeedData.EntryColumns.FEED_ID + "="
-                        + FeedData.FeedColumns.TABLE_NAME + "." + FeedData.FeedColumns._ID + ")",
-                "(SELECT COUNT(*) FROM " + FeedData.EntryColumns.TABLE_NAME + " WHERE " + FeedData.EntryColumns.IS_READ + " IS NULL)",
-                "(SELECT COUNT(*) FROM " + FeedData.EntryColumns.TABLE_NAME + " WHERE " + FeedData.EntryColumns.IS_FAVORITE + Constants.DB_IS_TRUE + ")"}, null, null, null);
+                FeedData.CounterColumns.FEED_UNREAD, FeedData.CounterColumns.ALL_UNREAD, FeedData.CounterColumns.ALL_FAVORITES}, null, null, null);
         cursorLoader.setUpdateThrottle(Constants.UPDATE_THROTTLE_DELAY);
         return cursorLoader;
     }
@@ -30,7 +30,6 @@ import net.woocheol.inventoryman.utils.UiUtils;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -157,7 +156,7 @@ public class DrawerAdapter extends BaseAdapter {
 
                 byte[] iconBytes = mFeedsCursor.getBlob(POS_ICON);
                 if (iconBytes != null && iconBytes.length > 0) {
-                    Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
+                    Bitmap bitmap = UiUtils.getFaviconBitmap(mFeedsCursor.getLong(POS_ID), iconBytes, 0);
                     holder.iconView.setImageBitmap(bitmap);
                 } else {
                     holder.iconView.setImageResource(R.drawable.icon);
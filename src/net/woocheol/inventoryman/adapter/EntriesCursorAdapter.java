@@ -45,7 +45,6 @@
 package net.woocheol.inventoryman.adapter;
 
 import java.util.Date;
-import java.util.Vector;
 
 import net.woocheol.inventoryman.Constants;
 import net.woocheol.inventoryman.MainApplication;
@@ -53,15 +52,13 @@ import net.woocheol.inventoryman.R;
 import net.woocheol.inventoryman.provider.FeedData;
 import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
 import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
-import net.woocheol.inventoryman.provider.FeedDataContentProvider;
+import net.woocheol.inventoryman.provider.EntryStateWriter;
+import net.woocheol.inventoryman.utils.LongSet;
 import net.woocheol.inventoryman.utils.UiUtils;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.view.View;
@@ -73,24 +70,24 @@ import android.widget.ImageView;
 import android.widget.ResourceCursorAdapter;
 import android.widget.TextView;
 
-public class EntriesCursorAdapter extends ResourceCursorAdapter {
+public class EntriesCursorAdapter extends ResourceCursorAdapter implements UiUtils.OnFaviconLoadedListener {
     private int titleColumnPosition;
 
     private int dateColumn;
     private int isReadColumn;
     private int favoriteColumn;
     private int idColumn;
-    private int feedIconColumn;
+    private int feedIdColumn;
     private int feedNameColumn;
     private int linkColumn;
 
     private final Uri uri;
     private final boolean showFeedInfo;
 
-    private final Vector<Long> markedAsRead = new Vector<Long>();
-    private final Vector<Long> markedAsUnread = new Vector<Long>();
-    private final Vector<Long> favorited = new Vector<Long>();
-    private final Vector<Long> unfavorited = new Vector<Long>();
+    private final LongSet markedAsRead = new LongSet();
+    private final LongSet markedAsUnread = new LongSet();
+    private final LongSet favorited = new LongSet();
+    private final LongSet unfavorited = new LongSet();
 
     public EntriesCursorAdapter(Context context, Uri uri, Cursor cursor, boolean showFeedInfo) {
         super(context, R.layout.entry_list_item, cursor, 0);
@@ -131,31 +128,17 @@ public class EntriesCursorAdapter extends ResourceCursorAdapter {
                     favorited.remove(id);
                 }
 
-                ContentValues values = new ContentValues();
-                values.put(EntryColumns.IS_FAVORITE, newFavorite ? 1 : 0);
-
-                ContentResolver cr = MainApplication.getContext().getContentResolver();
-                Uri entryUri = ContentUris.withAppendedId(uri, id);
-                if (cr.update(entryUri, values, null, null) > 0) {
-                    FeedDataContentProvider.notifyAllFromEntryUri(entryUri, false); //Receive New Favorite on MainActivity
-                }
+                EntryStateWriter.getInstance().setFavorite(id, newFavorite);
             }
         });
 
         Date date = new Date(cursor.getLong(dateColumn));
 
-        if (showFeedInfo && feedIconColumn > -1) {
-            byte[] iconBytes = cursor.getBlob(feedIconColumn);
+        if (showFeedInfo && feedIdColumn > -1) {
+            // Read in the background the first time, the rows are bound again once it is
+            Bitmap bitmap = UiUtils.getFaviconBitmap(cursor.getLong(feedIdColumn), UiUtils.dpToPixel(18), this);
 
-            if (iconBytes != null && iconBytes.length > 0) {
-                Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
-
-                if (bitmap != null) {
-                    int bitmapSizeInDip = UiUtils.dpToPixel(18);
-                    if (bitmap.getHeight() != bitmapSizeInDip) {
-                        bitmap = Bitmap.createScaledBitmap(bitmap, bitmapSizeInDip, bitmapSizeInDip, false);
-                    }
-                }
+            if (bitmap != null) {
                 dateTextView.setCompoundDrawablesWithIntrinsicBounds(new BitmapDrawable(context.getResources(), bitmap), null, null, null);
             } else {
                 dateTextView.setCompoundDrawablesWithIntrinsicBounds(null, null, null, null);
@@ -204,7 +187,8 @@ public class EntriesCursorAdapter extends ResourceCursorAdapter {
         markedAsRead.clear();
         markedAsUnread.clear();
 
-        new Thread() {
+        // After the pending toggles, so an entry marked as unread just before is not turned unread again once this is done
+        EntryStateWriter.getInstance().runAfterPendingChanges(new Runnable() {
             @Override
             public void run() {
                 ContentResolver cr = MainApplication.getContext().getContentResolver();
@@ -219,39 +203,21 @@ public class EntriesCursorAdapter extends ResourceCursorAdapter {
                     cr.notifyChange(EntryColumns.FAVORITES_CONTENT_URI, null);
                 }
             }
-        }.start();
+        });
     }
 
-    private void markAsRead(final long id) {
+    private void markAsRead(long id) {
         markedAsRead.add(id);
         markedAsUnread.remove(id);
 
-        new Thread() {
-            @Override
-            public void run() {
-                ContentResolver cr = MainApplication.getContext().getContentResolver();
-                Uri entryUri = ContentUris.withAppendedId(uri, id);
-                if (cr.update(entryUri, FeedData.getReadContentValues(), null, null) > 0) {
-                    FeedDataContentProvider.notifyAllFromEntryUri(entryUri, false);
-                }
-            }
-        }.start();
+        EntryStateWriter.getInstance().markAsRead(id);
     }
 
-    private void markAsUnread(final long id) {
+    private void markAsUnread(long id) {
         markedAsUnread.add(id);
         markedAsRead.remove(id);
 
-        new Thread() {
-            @Override
-            public void run() {
-                ContentResolver cr = MainApplication.getContext().getContentResolver();
-                Uri entryUri = ContentUris.withAppendedId(uri, id);
-                if (cr.update(entryUri, FeedData.getUnreadContentValues(), null, null) > 0) {
-                    FeedDataContentProvider.notifyAllFromEntryUri(entryUri, false);
-                }
-            }
-        }.start();
+        EntryStateWriter.getInstance().markAsUnread(id);
     }
 
     @Override
@@ -272,6 +238,14 @@ public class EntriesCursorAdapter extends ResourceCursorAdapter {
         super.notifyDataSetChanged();
     }
 
+    @Override
+    public void onFaviconLoaded(long feedId) {
+        if (getCursor() != null) {
+            // Only rebinds the rows: the data did not change, so the read & favorite marks must not be reset like in notifyDataSetChanged()
+            super.notifyDataSetChanged();
+        }
+    }
+
     @Override
     public void notifyDataSetInvalidated() {
         reinit(null);
@@ -283,6 +257,8 @@ public class EntriesCursorAdapter extends ResourceCursorAdapter {
         markedAsUnread.clear();
         favorited.clear();
         unfavorited.clear();
+        // The changes not written yet are not in the new cursor
+        EntryStateWriter.getInstance().getPendingChanges(markedAsRead, markedAsUnread, favorited, unfavorited);
 
         if (cursor != null) {
             titleColumnPosition = cursor.getColumnIndex(EntryColumns.TITLE);
@@ -290,9 +266,9 @@ public class EntriesCursorAdapter extends ResourceCursorAdapter {
             isReadColumn = cursor.getColumnIndex(EntryColumns.IS_READ);
             favoriteColumn = cursor.getColumnIndex(EntryColumns.IS_FAVORITE);
             idColumn = cursor.getColumnIndex(EntryColumns._ID);
+            feedIdColumn = cursor.getColumnIndex(EntryColumns.FEED_ID);
             linkColumn = cursor.getColumnIndex(EntryColumns.LINK);
             if (showFeedInfo) {
-                feedIconColumn = cursor.getColumnIndex(FeedColumns.ICON);
                 feedNameColumn = cursor.getColumnIndex(FeedColumns.NAME);
             }
         }
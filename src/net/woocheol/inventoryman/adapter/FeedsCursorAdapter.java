@@ -27,7 +27,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.view.View;
@@ -69,14 +68,9 @@ public class FeedsCursorAdapter extends CursorLoaderExpandableListAdapter {
         byte[] iconBytes = cursor.getBlob(iconPosition);
 
         if (iconBytes != null && iconBytes.length > 0) {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
+            Bitmap bitmap = UiUtils.getFaviconBitmap(cursor.getLong(idPosition), iconBytes, UiUtils.dpToPixel(18));
 
-            if (bitmap != null && bitmap.getHeight() > 0 && bitmap.getWidth() > 0) {
-                int bitmapSizeInDip = UiUtils.dpToPixel(18);
-
-                if (bitmap.getHeight() != bitmapSizeInDip) {
-                    bitmap = Bitmap.createScaledBitmap(bitmap, bitmapSizeInDip, bitmapSizeInDip, false);
-                }
+            if (bitmap != null) {
                 textView.setCompoundDrawablesWithIntrinsicBounds(new BitmapDrawable(context.getResources(), bitmap), null, null, null);
             } else {
                 textView.setCompoundDrawablesWithIntrinsicBounds(null, null, null, null);
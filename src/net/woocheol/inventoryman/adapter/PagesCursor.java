@@ -0,0 +1,114 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.adapter;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * Read-only view of consecutive pages as a single cursor. Unlike a MergeCursor it registers no observer on the pages and never closes or
+ * deactivates them, since they belong to their loaders: a new view can be built after each page load, the old one is simply dropped.
+ */
+public class PagesCursor extends AbstractCursor {
+
+    private final Cursor[] mPages;
+    private final int[] mPageStarts; // position of the first row of each page
+    private final int mCount;
+    private Cursor mCursor;
+
+    public PagesCursor(Cursor[] pages) {
+        mPages = pages;
+        mPageStarts = new int[pages.length];
+
+        int count = 0;
+        for (int i = 0; i < pages.length; i++) {
+            mPageStarts[i] = count;
+            count += pages[i].getCount();
+        }
+        mCount = count;
+        mCursor = pages.length > 0 ? pages[0] : null;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        for (int i = mPages.length - 1; i >= 0; i--) {
+            if (newPosition >= mPageStarts[i]) {
+                mCursor = mPages[i];
+                return mCursor.moveToPosition(newPosition - mPageStarts[i]);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mCursor != null ? mCursor.getColumnNames() : new String[0];
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCursor.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCursor.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCursor.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCursor.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCursor.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCursor.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCursor.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCursor.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCursor.isNull(column);
+    }
+}
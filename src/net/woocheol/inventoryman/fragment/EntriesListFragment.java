@@ -19,13 +19,18 @@
 
 package net.woocheol.inventoryman.fragment;
 
+import java.util.ArrayList;
+
 import net.woocheol.inventoryman.Constants;
 import net.woocheol.inventoryman.R;
 import net.woocheol.inventoryman.adapter.EntriesCursorAdapter;
+import net.woocheol.inventoryman.adapter.PagesCursor;
+import net.woocheol.inventoryman.provider.FeedData;
 import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
 import net.woocheol.inventoryman.provider.FeedDataContentProvider;
 import net.woocheol.inventoryman.service.FetcherService;
 import net.woocheol.inventoryman.utils.PrefUtils;
+import android.app.Activity;
 import android.app.ListFragment;
 import android.app.LoaderManager;
 import android.content.ContentUris;
@@ -49,6 +54,8 @@ import android.view.View;
 import android.view.View.OnTouchListener;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ImageView;
 import android.widget.ListView;
 
@@ -58,15 +65,39 @@ public class EntriesListFragment extends ListFragment implements LoaderManager.L
 
     private static final int LOADER_ID = 1;
 
+    private static final int PAGE_SIZE = 100;
+    private static final String LIST_ORDER = EntryColumns.DATE + Constants.DB_DESC + ", " + EntryColumns._ID + Constants.DB_DESC;
+
     private Uri mUri;
     private boolean mShowFeedInfo = false;
     private EntriesCursorAdapter mEntriesCursorAdapter;
     private ListView lv;
 
+    // The list is made of pages, each one loaded by its own loader (keyset paging): a page holds the entries after the last one of the
+    // previous page, and up to its own last one once the next page is loaded. Only the new page is read when the list is scrolled down.
+    private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
+    private final ArrayList<long[]> mPageEnds = new ArrayList<long[]>(); // date and id of the last entry of each page but the last one
+    private boolean mHasMoreEntries = true;
+    private boolean mIsLoadingPage = false;
+
+    private final OnScrollListener mScrollListener = new OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            if (mHasMoreEntries && !mIsLoadingPage && totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 4) {
+                loadNextPage();
+            }
+        }
+    };
+
     private final OnSharedPreferenceChangeListener prefListener = new OnSharedPreferenceChangeListener() {
         @Override
         public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
             if (PrefUtils.SHOW_READ.equals(key)) {
+                resetPages();
                 getLoaderManager().restartLoader(LOADER_ID, null, EntriesListFragment.this);
             }
         }
@@ -121,6 +152,7 @@ public class EntriesListFragment extends ListFragment implements LoaderManager.L
             mShowFeedInfo = savedInstanceState.getBoolean(STATE_SHOW_FEED_INFO);
 
             mEntriesCursorAdapter = new EntriesCursorAdapter(getActivity(), mUri, null, mShowFeedInfo);
+            resetPages();
             getLoaderManager().initLoader(LOADER_ID, null, this);
         }
 
@@ -146,6 +178,7 @@ public class EntriesListFragment extends ListFragment implements LoaderManager.L
         lv = (ListView) rootView.findViewById(android.R.id.list);
         lv.setFastScrollEnabled(true);
         lv.setOnTouchListener(new SwipeGestureListener(getActivity()));
+        lv.setOnScrollListener(mScrollListener);
 
         return rootView;
     }
@@ -185,20 +218,35 @@ public class EntriesListFragment extends ListFragment implements LoaderManager.L
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.menu_share_starred: {
-                String starredList = "";
-                Cursor cursor = mEntriesCursorAdapter.getCursor();
-                if (cursor != null && !cursor.isClosed()) {
-                    int titlePos = cursor.getColumnIndex(EntryColumns.TITLE);
-                    int linkPos = cursor.getColumnIndex(EntryColumns.LINK);
-                    if (cursor.moveToFirst()) {
-                        do {
-                            starredList += cursor.getString(titlePos) + "\n" + cursor.getString(linkPos) + "\n\n";
-                        } while (cursor.moveToNext());
+                final Activity activity = getActivity();
+                final Uri uri = mUri;
+                new Thread() {
+                    @Override
+                    public void run() {
+                        // The list cursor may only hold the first entries
+                        Cursor cursor = activity.getContentResolver().query(uri, new String[]{EntryColumns.TITLE, EntryColumns.LINK}, null, null,
+                                LIST_ORDER);
+                        if (cursor != null) {
+                            final StringBuilder starredList = new StringBuilder();
+                            while (cursor.moveToNext()) {
+                                starredList.append(cursor.getString(0)).append('\n').append(cursor.getString(1)).append("\n\n");
+                            }
+                            cursor.close();
+
+                            activity.runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (!activity.isFinishing()) {
+                                        Intent intent = new Intent(Intent.ACTION_SEND).setType(Constants.MIMETYPE_TEXT_PLAIN)
+                                                .putExtra(Intent.EXTRA_SUBJECT, activity.getString(R.string.share_favorites_title))
+                                                .putExtra(Intent.EXTRA_TEXT, starredList.toString());
+                                        activity.startActivity(Intent.createChooser(intent, activity.getString(R.string.menu_share)));
+                                    }
+                                }
+                            });
+                        }
                     }
-                    startActivity(Intent.createChooser(
-                            new Intent(Intent.ACTION_SEND).putExtra(Intent.EXTRA_SUBJECT, getString(R.string.share_favorites_title))
-                                    .putExtra(Intent.EXTRA_TEXT, starredList).setType(Constants.MIMETYPE_TEXT_PLAIN), getString(R.string.menu_share)));
-                }
+                }.start();
                 return true;
             }
             case R.id.menu_refresh: {
@@ -237,27 +285,122 @@ public class EntriesListFragment extends ListFragment implements LoaderManager.L
     public void setData(Uri uri, boolean showFeedInfo) {
         mUri = uri;
         mShowFeedInfo = showFeedInfo;
+        resetPages();
 
         mEntriesCursorAdapter = new EntriesCursorAdapter(getActivity(), mUri, null, mShowFeedInfo);
         setListAdapter(mEntriesCursorAdapter);
         getLoaderManager().restartLoader(LOADER_ID, null, this);
     }
 
+    private void resetPages() {
+        int pageCount = mPages.size();
+        mPages.clear();
+        mPageEnds.clear();
+        mPages.add(null);
+        mHasMoreEntries = true;
+        mIsLoadingPage = false;
+
+        for (int page = 1; page < pageCount; page++) {
+            getLoaderManager().destroyLoader(LOADER_ID + page);
+        }
+    }
+
+    /**
+     * Ends the last page at its last entry and starts the loader of the next one. The last page is loaded again, now bounded, so its
+     * entries can not move to the next page when some are added or removed before it.
+     */
+    private void loadNextPage() {
+        int lastPage = mPages.size() - 1;
+        Cursor cursor = mPages.get(lastPage);
+        if (cursor == null || !cursor.moveToLast()) {
+            return;
+        }
+
+        mPageEnds.add(new long[]{cursor.getLong(cursor.getColumnIndex(EntryColumns.DATE)),
+                cursor.getLong(cursor.getColumnIndex(EntryColumns._ID))});
+        mPages.add(null);
+        mIsLoadingPage = true;
+
+        getLoaderManager().restartLoader(LOADER_ID + lastPage, null, this);
+        getLoaderManager().initLoader(LOADER_ID + lastPage + 1, null, this);
+    }
+
+    private void updateListCursor() {
+        ArrayList<Cursor> pages = new ArrayList<Cursor>(mPages.size());
+        for (Cursor page : mPages) {
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+
+        // The pages belong to their loaders, they must not be closed by the adapter. Unlike a MergeCursor, the PagesCursor replaced here
+        // stays unregistered from the pages, so it does not leak
+        if (pages.isEmpty()) {
+            mEntriesCursorAdapter.swapCursor(null);
+        } else if (pages.size() == 1) {
+            mEntriesCursorAdapter.swapCursor(pages.get(0));
+        } else {
+            mEntriesCursorAdapter.swapCursor(new PagesCursor(pages.toArray(new Cursor[pages.size()])));
+        }
+    }
+
+    private String getSelection() {
+        return PrefUtils.getBoolean(PrefUtils.SHOW_READ, true) || EntryColumns.FAVORITES_CONTENT_URI.equals(mUri) ? null : EntryColumns.WHERE_UNREAD;
+    }
+
+    private static String appendSelection(String selection, String condition) {
+        return selection == null ? condition : selection + Constants.DB_AND + condition;
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        CursorLoader cursorLoader = new CursorLoader(getActivity(), mUri, null, PrefUtils.getBoolean(PrefUtils.SHOW_READ, true)
-                || EntryColumns.FAVORITES_CONTENT_URI.equals(mUri) ? null : EntryColumns.WHERE_UNREAD, null, EntryColumns.DATE + Constants.DB_DESC);
+        int page = id - LOADER_ID;
+        Uri uri = mUri;
+        String selection = getSelection();
+        if (page > 0) { // after the last entry of the previous page, in the LIST_ORDER
+            long[] previousEnd = mPageEnds.get(page - 1);
+            selection = appendSelection(selection, '(' + EntryColumns.DATE + '<' + previousEnd[0] + Constants.DB_OR + '(' + EntryColumns.DATE + '='
+                    + previousEnd[0] + Constants.DB_AND + EntryColumns._ID + '<' + previousEnd[1] + "))");
+        }
+        if (page < mPageEnds.size()) { // up to its own last entry
+            long[] end = mPageEnds.get(page);
+            selection = appendSelection(selection, '(' + EntryColumns.DATE + '>' + end[0] + Constants.DB_OR + '(' + EntryColumns.DATE + '=' + end[0]
+                    + Constants.DB_AND + EntryColumns._ID + ">=" + end[1] + "))");
+        } else {
+            uri = mUri.buildUpon().appendQueryParameter(FeedData.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE)).build();
+        }
+
+        // The entries of a single feed are not joined with the feed info
+        String[] projection = FeedDataContentProvider.URI_MATCHER.match(mUri) == FeedDataContentProvider.URI_ENTRIES_FOR_FEED ? EntryColumns.PROJECTION_LIST
+                : EntryColumns.PROJECTION_LIST_WITH_FEED_INFO;
+
+        CursorLoader cursorLoader = new CursorLoader(getActivity(), uri, projection, selection, null, LIST_ORDER);
         cursorLoader.setUpdateThrottle(Constants.UPDATE_THROTTLE_DELAY);
         return cursorLoader;
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mEntriesCursorAdapter.changeCursor(data);
+        int page = loader.getId() - LOADER_ID;
+        if (page >= mPages.size()) { // from before a reset
+            return;
+        }
+
+        mPages.set(page, data);
+        if (page == mPages.size() - 1) {
+            mHasMoreEntries = data != null && data.getCount() >= PAGE_SIZE;
+            mIsLoadingPage = false;
+        }
+
+        updateListCursor();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mEntriesCursorAdapter.changeCursor(null);
+        int page = loader.getId() - LOADER_ID;
+        if (page < mPages.size()) {
+            mPages.set(page, null);
+            updateListCursor();
+        }
     }
 }
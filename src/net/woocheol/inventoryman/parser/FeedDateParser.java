@@ -0,0 +1,365 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.parser;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parses the RFC 822 (RSS) and RFC 3339 / ISO 8601 (Atom, Dublin Core) dates directly from the characters, without exceptions nor
+ * intermediate strings. The dates without timezone are in the local time, like before, and the ones with an unknown timezone name are
+ * invalid. An instance is used by a single thread, the format of each feed is remembered to be tried first on the next dates.
+ */
+public class FeedDateParser {
+
+    public static final long INVALID_DATE = -1;
+
+    private static final int FORMAT_RFC822 = 0;
+    private static final int FORMAT_ISO8601 = 1;
+
+    private static final int NO_ZONE = Integer.MIN_VALUE;
+    private static final int INVALID_ZONE = Integer.MAX_VALUE;
+
+    private static final long MINUTE = 60000l;
+    private static final long HOUR = 3600000l;
+    private static final long DAY = 86400000l;
+
+    private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+
+    // The names found in the feeds. The ambiguous ones are the most common meaning: CST is the US Central time, IST the India time
+    private static final String[] ZONES = {"UT", "UTC", "GMT", "Z", "EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT", "AKST", "AKDT",
+            "HST", "AST", "ADT", "NST", "NDT", "BRT", "WET", "WEST", "BST", "CET", "CEST", "MET", "MEST", "MEZ", "MESZ", "EET", "EEST",
+            "MSK", "IST", "SGT", "HKT", "AWST", "JST", "KST", "ACST", "AEST", "AEDT", "NZST", "NZDT"};
+    private static final int[] ZONES_OFFSET_IN_MINUTES = {0, 0, 0, 0, -300, -240, -360, -300, -420, -360, -480, -420, -540, -480, -600,
+            -240, -180, -210, -150, -180, 0, 60, 60, 60, 120, 60, 120, 60, 120, 120, 180, 180, 330, 480, 480, 480, 540, 540, 570, 600,
+            660, 720, 780};
+
+    private static final ConcurrentHashMap<String, Integer> FEED_FORMATS = new ConcurrentHashMap<String, Integer>();
+
+    private final String mFeedId;
+    private int mFormat;
+
+    private CharSequence mDate;
+    private int mPos;
+    private int mLength;
+
+    public FeedDateParser(String feedId) {
+        mFeedId = feedId;
+        Integer format = FEED_FORMATS.get(feedId);
+        mFormat = format != null ? format : FORMAT_RFC822;
+    }
+
+    /**
+     * @return the date in milliseconds, or INVALID_DATE if it is not in a supported format
+     */
+    public long parse(CharSequence date) {
+        mDate = date;
+        mLength = date.length();
+        while (mLength > 0 && Character.isWhitespace(date.charAt(mLength - 1))) { // the text of the tags is not trimmed
+            mLength--;
+        }
+
+        long result = parse(mFormat);
+        if (result == INVALID_DATE) {
+            int otherFormat = mFormat == FORMAT_RFC822 ? FORMAT_ISO8601 : FORMAT_RFC822;
+            result = parse(otherFormat);
+            if (result != INVALID_DATE) {
+                mFormat = otherFormat;
+                FEED_FORMATS.put(mFeedId, otherFormat);
+            }
+        }
+
+        mDate = null;
+        return result;
+    }
+
+    private long parse(int format) {
+        mPos = 0;
+        skipWhitespaces();
+        return format == FORMAT_RFC822 ? parseRfc822() : parseIso8601();
+    }
+
+    // [EEE, ]d MMM yyyy HH:mm[:ss] [zone]
+    private long parseRfc822() {
+        if (mPos < mLength && Character.isLetter(mDate.charAt(mPos))) { // day of week
+            while (mPos < mLength && Character.isLetter(mDate.charAt(mPos))) {
+                mPos++;
+            }
+            if (mPos < mLength && mDate.charAt(mPos) == ',') {
+                mPos++;
+            }
+            skipWhitespaces();
+        }
+
+        int day = readNumber(1, 2);
+        if (day == -1 || !skipSeparator()) {
+            return INVALID_DATE;
+        }
+
+        int month = readMonth();
+        if (month == -1 || !skipSeparator()) {
+            return INVALID_DATE;
+        }
+
+        int start = mPos;
+        int year = readNumber(2, 4);
+        if (year == -1 || mPos - start == 3) {
+            return INVALID_DATE;
+        }
+        if (mPos - start == 2) {
+            year += year < 50 ? 2000 : 1900;
+        }
+
+        skipWhitespaces();
+        int hour = readNumber(1, 2);
+        if (hour == -1 || !skip(':')) {
+            return INVALID_DATE;
+        }
+        int minute = readNumber(2, 2);
+        int second = 0;
+        if (skip(':')) {
+            second = readNumber(2, 2);
+        }
+        if (minute == -1 || second == -1) {
+            return INVALID_DATE;
+        }
+        skipFraction();
+
+        skipWhitespaces();
+        return toMillis(year, month, day, hour, minute, second, 0, readZone());
+    }
+
+    // yyyy-MM-dd[( |T)HH:mm[:ss[.SSS]][zone]]
+    private long parseIso8601() {
+        int year = readNumber(4, 4);
+        if (year == -1 || !skip('-')) {
+            return INVALID_DATE;
+        }
+        int month = readNumber(2, 2);
+        if (month == -1 || !skip('-')) {
+            return INVALID_DATE;
+        }
+        int day = readNumber(2, 2);
+        if (day == -1) {
+            return INVALID_DATE;
+        }
+
+        if (mPos == mLength || (mDate.charAt(mPos) != 'T' && mDate.charAt(mPos) != 't' && mDate.charAt(mPos) != ' ')) { // only a day
+            return toMillis(year, month, day, 0, 0, 0, 0, NO_ZONE);
+        }
+        skipWhitespaces();
+        if (mPos == mLength) {
+            return INVALID_DATE;
+        }
+        if (mDate.charAt(mPos) == 'T' || mDate.charAt(mPos) == 't') {
+            mPos++;
+        }
+
+        int hour = readNumber(2, 2);
+        if (hour == -1 || !skip(':')) {
+            return INVALID_DATE;
+        }
+        int minute = readNumber(2, 2);
+        int second = 0;
+        if (skip(':')) {
+            second = readNumber(2, 2);
+        }
+        if (minute == -1 || second == -1) {
+            return INVALID_DATE;
+        }
+        int millis = skipFraction();
+
+        skipWhitespaces();
+        return toMillis(year, month, day, hour, minute, second, millis, readZone());
+    }
+
+    /**
+     * @return the offset in milliseconds, NO_ZONE if there is no timezone or INVALID_ZONE if its name is unknown
+     */
+    private int readZone() {
+        if (mPos == mLength) {
+            return NO_ZONE;
+        }
+
+        int offset = NO_ZONE;
+        char c = mDate.charAt(mPos);
+        if (Character.isLetter(c)) {
+            offset = INVALID_ZONE;
+            int start = mPos;
+            while (mPos < mLength && Character.isLetter(mDate.charAt(mPos))) {
+                mPos++;
+            }
+            for (int i = 0; i < ZONES.length; i++) {
+                if (regionEqualsIgnoreCase(start, mPos, ZONES[i])) {
+                    offset = (int) (ZONES_OFFSET_IN_MINUTES[i] * MINUTE);
+                    break;
+                }
+            }
+
+            if (offset == INVALID_ZONE || mPos == mLength) { // "GMT+01:00" goes on with the offset
+                return offset;
+            }
+            c = mDate.charAt(mPos);
+        }
+
+        if (c == '+' || c == '-') {
+            mPos++;
+            int hours = readNumber(1, 2);
+            if (hours == -1) {
+                return offset;
+            }
+            skip(':');
+            int minutes = readNumber(2, 2);
+            int zoneOffset = (int) (hours * HOUR + (minutes == -1 ? 0 : minutes) * MINUTE);
+            return (offset == NO_ZONE ? 0 : offset) + (c == '-' ? -zoneOffset : zoneOffset);
+        }
+
+        return offset;
+    }
+
+    private long toMillis(int year, int month, int day, int hour, int minute, int second, int millis, int zoneOffset) {
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 24 || minute > 59 || second > 60 || zoneOffset == INVALID_ZONE) {
+            return INVALID_DATE;
+        }
+
+        long result = daysFromCivil(year, month, day) * DAY + hour * HOUR + minute * MINUTE + Math.min(second, 59) * 1000l + millis;
+        if (zoneOffset == NO_ZONE) {
+            TimeZone timeZone = TimeZone.getDefault();
+            return result - timeZone.getOffset(result - timeZone.getRawOffset());
+        }
+        return result - zoneOffset;
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2) {
+            year--;
+        }
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097l + dayOfEra - 719468;
+    }
+
+    private int readMonth() {
+        if (mPos + 3 > mLength) {
+            return -1;
+        }
+
+        char c1 = Character.toLowerCase(mDate.charAt(mPos));
+        char c2 = Character.toLowerCase(mDate.charAt(mPos + 1));
+        char c3 = Character.toLowerCase(mDate.charAt(mPos + 2));
+        for (int i = 0; i < MONTHS.length(); i += 3) {
+            if (c1 == MONTHS.charAt(i) && c2 == MONTHS.charAt(i + 1) && c3 == MONTHS.charAt(i + 2)) {
+                mPos += 3;
+                while (mPos < mLength && Character.isLetter(mDate.charAt(mPos))) { // full month name
+                    mPos++;
+                }
+                if (mPos < mLength && mDate.charAt(mPos) == '.') {
+                    mPos++;
+                }
+                return i / 3 + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the number made of minDigits to maxDigits digits, or -1
+     */
+    private int readNumber(int minDigits, int maxDigits) {
+        int start = mPos;
+        int result = 0;
+        while (mPos < mLength && mPos - start < maxDigits) {
+            char c = mDate.charAt(mPos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            result = result * 10 + c - '0';
+            mPos++;
+        }
+
+        return mPos - start < minDigits ? -1 : result;
+    }
+
+    /**
+     * @return the milliseconds of a ".SSS" or ",SSS" fraction of second, if any
+     */
+    private int skipFraction() {
+        if (mPos == mLength || (mDate.charAt(mPos) != '.' && mDate.charAt(mPos) != ',')) {
+            return 0;
+        }
+
+        mPos++;
+        int millis = 0;
+        int digits = 0;
+        while (mPos < mLength && mDate.charAt(mPos) >= '0' && mDate.charAt(mPos) <= '9') {
+            if (digits < 3) {
+                millis = millis * 10 + mDate.charAt(mPos) - '0';
+                digits++;
+            }
+            mPos++;
+        }
+        while (digits > 0 && digits < 3) {
+            millis *= 10;
+            digits++;
+        }
+        return millis;
+    }
+
+    // The parts of the RFC 822 dates are separated by spaces, or dashes on some feeds
+    private boolean skipSeparator() {
+        int start = mPos;
+        skipWhitespaces();
+        if (mPos < mLength && mDate.charAt(mPos) == '-') {
+            mPos++;
+            skipWhitespaces();
+        }
+        return mPos > start;
+    }
+
+    private boolean skip(char c) {
+        if (mPos < mLength && mDate.charAt(mPos) == c) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespaces() {
+        while (mPos < mLength && Character.isWhitespace(mDate.charAt(mPos))) {
+            mPos++;
+        }
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.toLowerCase(mDate.charAt(start + i)) != Character.toLowerCase(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The filters of a feed, compiled once: the regular expressions are compiled and all the plain texts are searched at once (Aho-Corasick),
+ * for the titles and for the contents. Plain Java, FeedFiltersCache loads them from the database.
+ */
+public class FeedFilters {
+
+    public static final FeedFilters NO_FILTERS = new FeedFilters(new ArrayList<String>(0), new ArrayList<String>(0), new ArrayList<Pattern>(0),
+            new ArrayList<Pattern>(0));
+
+    private final KeywordMatcher mTitleKeywords;
+    private final KeywordMatcher mContentKeywords;
+    private final Pattern[] mTitlePatterns;
+    private final Pattern[] mContentPatterns;
+
+    public FeedFilters(List<String> titleKeywords, List<String> contentKeywords, List<Pattern> titlePatterns, List<Pattern> contentPatterns) {
+        mTitleKeywords = titleKeywords.isEmpty() ? null : new KeywordMatcher(titleKeywords);
+        mContentKeywords = contentKeywords.isEmpty() ? null : new KeywordMatcher(contentKeywords);
+        mTitlePatterns = titlePatterns.toArray(new Pattern[titlePatterns.size()]);
+        mContentPatterns = contentPatterns.toArray(new Pattern[contentPatterns.size()]);
+    }
+
+    public boolean isEntryFiltered(String title, String content) {
+        if (title != null) {
+            if (mTitleKeywords != null && mTitleKeywords.isFoundIn(title)) {
+                return true;
+            }
+            for (Pattern pattern : mTitlePatterns) {
+                if (pattern.matcher(title).find()) {
+                    return true;
+                }
+            }
+        }
+
+        if (content != null) {
+            if (mContentKeywords != null && mContentKeywords.isFoundIn(content)) {
+                return true;
+            }
+            for (Pattern pattern : mContentPatterns) {
+                if (pattern.matcher(content).find()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Aho-Corasick automaton telling if any of the keywords is contained in a text, in a single pass over it. The children of each node are
+     * stored sorted in flat arrays.
+     */
+    private static class KeywordMatcher {
+        private final int[] mChildrenStart; // the children of node n are between mChildrenStart[n] and mChildrenStart[n + 1]
+        private final char[] mChildrenChar;
+        private final int[] mChildrenNode;
+        private final int[] mFailures;
+        private final boolean[] mMatches;
+
+        KeywordMatcher(List<String> keywords) {
+            // Build the trie
+            ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+            ArrayList<Boolean> ends = new ArrayList<Boolean>();
+            trie.add(new TreeMap<Character, Integer>());
+            ends.add(false);
+
+            for (String keyword : keywords) {
+                int node = 0;
+                for (int i = 0; i < keyword.length(); i++) {
+                    Integer child = trie.get(node).get(keyword.charAt(i));
+                    if (child == null) {
+                        child = trie.size();
+                        trie.get(node).put(keyword.charAt(i), child);
+                        trie.add(new TreeMap<Character, Integer>());
+                        ends.add(false);
+                    }
+                    node = child;
+                }
+                ends.set(node, true);
+            }
+
+            int nodeCount = trie.size();
+            mChildrenStart = new int[nodeCount + 1];
+            mChildrenChar = new char[nodeCount - 1];
+            mChildrenNode = new int[nodeCount - 1];
+            mFailures = new int[nodeCount];
+            mMatches = new boolean[nodeCount];
+
+            int index = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                mChildrenStart[node] = index;
+                for (Map.Entry<Character, Integer> child : trie.get(node).entrySet()) {
+                    mChildrenChar[index] = child.getKey();
+                    mChildrenNode[index] = child.getValue();
+                    index++;
+                }
+                mMatches[node] = ends.get(node);
+            }
+            mChildrenStart[nodeCount] = index;
+
+            // Link each node to the longest suffix of its path which is also in the trie (breadth first, so the suffixes are done before)
+            int[] queue = new int[nodeCount];
+            int head = 0, tail = 0;
+            queue[tail++] = 0;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int i = mChildrenStart[node]; i < mChildrenStart[node + 1]; i++) {
+                    int child = mChildrenNode[i];
+                    int failure = node == 0 ? -1 : mFailures[node];
+                    int target = -1;
+                    while (failure != -1 && (target = getChild(failure, mChildrenChar[i])) == -1) {
+                        failure = failure == 0 ? -1 : mFailures[failure];
+                    }
+                    mFailures[child] = target == -1 ? 0 : target;
+                    mMatches[child] |= mMatches[mFailures[child]];
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        boolean isFoundIn(String text) {
+            if (mMatches[0]) { // empty keyword
+                return true;
+            }
+
+            int node = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                int next;
+                while ((next = getChild(node, c)) == -1 && node != 0) {
+                    node = mFailures[node];
+                }
+                node = next == -1 ? 0 : next;
+                if (mMatches[node]) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private int getChild(int node, char c) {
+            int index = Arrays.binarySearch(mChildrenChar, mChildrenStart[node], mChildrenStart[node + 1], c);
+            return index < 0 ? -1 : mChildrenNode[index];
+        }
+    }
+}
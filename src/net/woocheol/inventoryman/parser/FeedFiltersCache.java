@@ -0,0 +1,113 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import net.woocheol.inventoryman.MainApplication;
+import net.woocheol.inventoryman.provider.FeedData.FilterColumns;
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+/**
+ * The compiled filters of each feed, kept until they are edited.
+ */
+public class FeedFiltersCache {
+
+    private static final HashMap<String, FeedFilters> CACHE = new HashMap<String, FeedFilters>();
+    private static int sGeneration = 0;
+
+    /**
+     * Returns the compiled filters of the feed, only reading them from the database the first time or after they changed
+     */
+    public static FeedFilters getFeedFilters(String feedId) {
+        int generation;
+        synchronized (CACHE) {
+            FeedFilters filters = CACHE.get(feedId);
+            if (filters != null) {
+                return filters;
+            }
+            generation = sGeneration;
+        }
+
+        FeedFilters filters = loadFeedFilters(feedId);
+
+        synchronized (CACHE) {
+            if (generation == sGeneration) { // not edited while it was loading
+                CACHE.put(feedId, filters);
+            }
+        }
+        return filters;
+    }
+
+    public static void invalidate(String feedId) {
+        synchronized (CACHE) {
+            sGeneration++;
+            CACHE.remove(feedId);
+        }
+    }
+
+    public static void invalidateAll() {
+        synchronized (CACHE) {
+            sGeneration++;
+            CACHE.clear();
+        }
+    }
+
+    private static FeedFilters loadFeedFilters(String feedId) {
+        ArrayList<String> titleKeywords = new ArrayList<String>();
+        ArrayList<String> contentKeywords = new ArrayList<String>();
+        ArrayList<Pattern> titlePatterns = new ArrayList<Pattern>();
+        ArrayList<Pattern> contentPatterns = new ArrayList<Pattern>();
+
+        ContentResolver cr = MainApplication.getContext().getContentResolver();
+        Cursor c = cr.query(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(feedId), new String[]{FilterColumns.FILTER_TEXT, FilterColumns.IS_REGEX,
+                FilterColumns.IS_APPLIED_TO_TITLE}, null, null, null);
+        while (c.moveToNext()) {
+            String filterText = c.getString(0);
+            boolean isRegex = c.getInt(1) == 1;
+            boolean isAppliedToTitle = c.getInt(2) == 1;
+
+            if (filterText == null) {
+                continue;
+            }
+
+            if (isRegex) {
+                try {
+                    (isAppliedToTitle ? titlePatterns : contentPatterns).add(Pattern.compile(filterText));
+                } catch (PatternSyntaxException ignored) { // an invalid filter does not filter anything
+                }
+            } else {
+                (isAppliedToTitle ? titleKeywords : contentKeywords).add(filterText);
+            }
+        }
+        c.close();
+
+        if (titleKeywords.isEmpty() && contentKeywords.isEmpty() && titlePatterns.isEmpty() && contentPatterns.isEmpty()) {
+            return FeedFilters.NO_FILTERS;
+        }
+
+        return new FeedFilters(titleKeywords, contentKeywords, titlePatterns, contentPatterns);
+    }
+
+}
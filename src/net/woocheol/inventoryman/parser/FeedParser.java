@@ -0,0 +1,853 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * Some parts of this software are based on "Sparse rss" under the MIT license (see
+ * below). Please refers to the original project to identify which parts are under the
+ * MIT license.
+ *
+ * Copyright (c) 2010-2012 Stefan Handschuh
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+
+package net.woocheol.inventoryman.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+import net.woocheol.inventoryman.utils.HtmlEntities;
+import net.woocheol.inventoryman.utils.HtmlSanitizer;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Parses RSS, RDF and Atom feeds with a pull parser and gives the entries to a FeedSink. Plain Java, it only needs an XmlPullParser
+ * implementation: the storage of the entries is left to the sink, so it can also run outside of the device. The name of each tag is looked
+ * up once in a map giving its code, then dispatched with a switch.
+ */
+public class FeedParser {
+
+    public static final String ENCLOSURE_SEPARATOR = "[@]"; // exactly three characters!
+
+    private static final String HTTP = "http://";
+    private static final String HTTPS = "https://";
+    private static final String SLASH = "/";
+    private static final String COMMA_SPACE = ", ";
+    private static final String UTF8 = "UTF-8";
+    private static final String AMP = "&";
+    private static final String AMP_SG = "&amp;";
+
+    private static final Pattern HTML_TAG_PATTERN = Pattern.compile("<(.|\n)*?>");
+
+    private static final String FEATURE_RELAXED = "http://xmlpull.org/v1/doc/features.html#relaxed";
+
+    private static final String PREFIX_MEDIA = "media";
+
+    private static final int TAG_RSS = 1;
+    private static final int TAG_RDF = 2;
+    private static final int TAG_FEED = 3;
+    private static final int TAG_ENTRY = 4;
+    private static final int TAG_ITEM = 5;
+    private static final int TAG_UPDATED = 6;
+    private static final int TAG_TITLE = 7;
+    private static final int TAG_LINK = 8;
+    private static final int TAG_DESCRIPTION = 9;
+    private static final int TAG_CONTENT = 10;
+    private static final int TAG_ENCODED_CONTENT = 11;
+    private static final int TAG_SUMMARY = 12;
+    private static final int TAG_PUBDATE = 13;
+    private static final int TAG_PUBLISHED = 14;
+    private static final int TAG_DATE = 15;
+    private static final int TAG_LAST_BUILD_DATE = 16;
+    private static final int TAG_ENCLOSURE = 17;
+    private static final int TAG_GUID = 18;
+    private static final int TAG_AUTHOR = 19;
+    private static final int TAG_CREATOR = 20;
+    private static final int TAG_NAME = 21;
+    private static final int TAG_TTL = 22;
+    private static final int TAG_SKIP_HOURS = 23;
+    private static final int TAG_HOUR = 24;
+    private static final int TAG_SKIP_DAYS = 25;
+    private static final int TAG_DAY = 26;
+    private static final int TAG_UPDATE_PERIOD = 27;
+    private static final int TAG_UPDATE_FREQUENCY = 28;
+    private static final int TAG_UNKNOWN = 0;
+
+    // One lookup per tag instead of comparing its name with all the known ones
+    private static final HashMap<String, Integer> TAGS = new HashMap<String, Integer>();
+
+    static {
+        TAGS.put("rss", TAG_RSS);
+        TAGS.put("rdf", TAG_RDF);
+        TAGS.put("RDF", TAG_RDF);
+        TAGS.put("feed", TAG_FEED);
+        TAGS.put("entry", TAG_ENTRY);
+        TAGS.put("item", TAG_ITEM);
+        TAGS.put("updated", TAG_UPDATED);
+        TAGS.put("title", TAG_TITLE);
+        TAGS.put("link", TAG_LINK);
+        TAGS.put("description", TAG_DESCRIPTION);
+        TAGS.put("content", TAG_CONTENT);
+        TAGS.put("encoded", TAG_ENCODED_CONTENT);
+        TAGS.put("summary", TAG_SUMMARY);
+        TAGS.put("pubDate", TAG_PUBDATE);
+        TAGS.put("published", TAG_PUBLISHED);
+        TAGS.put("date", TAG_DATE);
+        TAGS.put("lastBuildDate", TAG_LAST_BUILD_DATE);
+        TAGS.put("enclosure", TAG_ENCLOSURE);
+        TAGS.put("guid", TAG_GUID);
+        TAGS.put("author", TAG_AUTHOR);
+        TAGS.put("creator", TAG_CREATOR);
+        TAGS.put("name", TAG_NAME);
+        TAGS.put("ttl", TAG_TTL);
+        TAGS.put("skipHours", TAG_SKIP_HOURS);
+        TAGS.put("hour", TAG_HOUR);
+        TAGS.put("skipDays", TAG_SKIP_DAYS);
+        TAGS.put("day", TAG_DAY);
+        TAGS.put("updatePeriod", TAG_UPDATE_PERIOD);
+        TAGS.put("updateFrequency", TAG_UPDATE_FREQUENCY);
+    }
+
+    private static final String ATTRIBUTE_URL = "url";
+    private static final String ATTRIBUTE_HREF = "href";
+    private static final String ATTRIBUTE_TYPE = "type";
+    private static final String ATTRIBUTE_LENGTH = "length";
+    private static final String ATTRIBUTE_REL = "rel";
+    private static final String REL_ENCLOSURE = "enclosure";
+
+    private static final String[] DAYS = {"sunday", "monday", "tuesday", "wednesday", "thursday", "friday", "saturday"};
+    private static final String[] UPDATE_PERIODS = {"hourly", "daily", "weekly", "monthly", "yearly"};
+    private static final long[] UPDATE_PERIODS_DURATION = {3600000l, 86400000l, 604800000l, 2592000000l, 31536000000l};
+
+    private static final String UID_DIGEST = "MD5";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325l;
+    private static final long FNV_PRIME = 0x100000001b3l;
+
+    /**
+     * An entry of the feed, as given to the sink
+     */
+    public static class Entry {
+        public String title;
+        public String content; // cleaned html, or null
+        public ArrayList<String> images; // the images to download, null if they are not fetched
+        public String author;
+        public String enclosure;
+        public String guid;
+        public String link;
+        public String uid; // null when the entry has neither link nor guid
+        public long date; // only set for the new entries
+        public long contentHash; // digest of the title, content and author as found in the feed
+    }
+
+    private final FeedSink sink;
+    private final Date realLastUpdateDate;
+    private final Date keepDateBorder;
+    private final FeedDateParser dateParser;
+    private String feedBaseUrl;
+    private String imageUrlPrefix;
+
+    private long newRealLastUpdate;
+    private long now = System.currentTimeMillis();
+
+    private boolean entryTagEntered = false;
+    private boolean titleTagEntered = false;
+    private boolean updatedTagEntered = false;
+    private boolean linkTagEntered = false;
+    private boolean descriptionTagEntered = false;
+    private boolean pubDateTagEntered = false;
+    private boolean publishedTagEntered = false;
+    private boolean dateTagEntered = false;
+    private boolean lastBuildDateTagEntered = false;
+    private boolean guidTagEntered = false;
+    private boolean authorTagEntered = false;
+    private boolean skipHoursTagEntered = false;
+    private boolean skipDaysTagEntered = false;
+
+    // The text of the tags goes into these builders, reused from one entry to the other. It is only decoded once the entry is known to be
+    // inserted or updated.
+    private final StringBuilder title = new StringBuilder();
+    private final StringBuilder dateStringBuilder = new StringBuilder();
+    private final StringBuilder entryLink = new StringBuilder();
+    private final StringBuilder description = new StringBuilder();
+    private final StringBuilder enclosure = new StringBuilder();
+    private final StringBuilder guid = new StringBuilder();
+    private final StringBuilder author = new StringBuilder();
+    private final StringBuilder tmpAuthor = new StringBuilder();
+    private boolean hasTitle = false;
+    private boolean hasEntryLink = false;
+    private boolean hasDescription = false;
+    private boolean hasTmpAuthor = false;
+    private String feedLink;
+    private Date entryDate;
+    private Date entryUpdateDate;
+    private Date previousEntryDate;
+    private Date previousEntryUpdateDate;
+    private String feedTitle;
+    private int newCount = 0;
+    private boolean done = false;
+    private boolean cancelled = false;
+
+    // Refresh hints given by the publisher
+    private StringBuilder refreshHint;
+    private boolean refreshHintFound = false;
+    private long ttl = 0;
+    private long updatePeriod = 0;
+    private int updateFrequency = 1;
+    private int skipHours = 0;
+    private int skipDays = 0;
+
+    private final int[] textHolder = new int[2];
+
+    /**
+     * @param feedId             used to remember the date format of the feed
+     * @param url                the url of the feed, to complete the relative links
+     * @param realLastUpdateDate the date of the most recent entry already saved, the older entries are not inserted again
+     * @param keepDateBorder     the entries older than this are not kept
+     */
+    public FeedParser(FeedSink sink, String feedId, String url, Date realLastUpdateDate, Date keepDateBorder) {
+        this.sink = sink;
+        this.realLastUpdateDate = realLastUpdateDate;
+        this.keepDateBorder = keepDateBorder;
+        newRealLastUpdate = realLastUpdateDate.getTime();
+        dateParser = new FeedDateParser(feedId);
+
+        int index = url.indexOf('/', 8); // this also covers https://
+        if (index > -1) {
+            feedBaseUrl = url.substring(0, index);
+        }
+    }
+
+    /**
+     * @param imageUrlPrefix if not null, the images of the entries are replaced by this prefix followed by their file name and listed in
+     *                       Entry.images
+     */
+    public void setImageUrlPrefix(String imageUrlPrefix) {
+        this.imageUrlPrefix = imageUrlPrefix;
+    }
+
+    /**
+     * @param encoding the encoding of the stream, or null to detect it
+     */
+    public void parse(InputStream inputStream, String encoding) throws XmlPullParserException, IOException {
+        XmlPullParser parser = newPullParser();
+        parser.setInput(inputStream, encoding);
+        parse(parser);
+    }
+
+    public void parse(Reader reader) throws XmlPullParserException, IOException {
+        XmlPullParser parser = newPullParser();
+        parser.setInput(reader);
+        parse(parser);
+    }
+
+    private static XmlPullParser newPullParser() throws XmlPullParserException {
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XmlPullParser parser = factory.newPullParser();
+        try {
+            parser.setFeature(FEATURE_RELAXED, true); // the feeds are often not strictly valid (html entities, ...)
+        } catch (XmlPullParserException ignored) {
+        }
+        return parser;
+    }
+
+    private void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT && !cancelled) {
+            switch (eventType) {
+                case XmlPullParser.START_TAG:
+                    startTag(parser, getTag(parser));
+                    break;
+                case XmlPullParser.TEXT:
+                    text(parser);
+                    break;
+                case XmlPullParser.END_TAG:
+                    endTag(parser, getTag(parser));
+                    break;
+            }
+            eventType = parser.next();
+        }
+
+        sink.onFeedParsed(this);
+    }
+
+    private static int getTag(XmlPullParser parser) {
+        Integer tag = TAGS.get(parser.getName());
+        return tag != null ? tag : TAG_UNKNOWN;
+    }
+
+    private void startTag(XmlPullParser parser, int tag) {
+        switch (tag) {
+            case TAG_UPDATED:
+                updatedTagEntered = true;
+                dateStringBuilder.setLength(0);
+                break;
+            case TAG_ENTRY:
+            case TAG_ITEM:
+                entryTagEntered = true;
+                hasDescription = false;
+                hasEntryLink = false;
+
+                // Save the previous (if no date are found for this entry)
+                previousEntryDate = entryDate;
+                previousEntryUpdateDate = entryUpdateDate;
+                entryDate = null;
+                entryUpdateDate = null;
+
+                // This is the retrieved feed title
+                if (feedTitle == null && hasTitle && title.length() > 0) {
+                    feedTitle = title.toString();
+                }
+                hasTitle = false;
+                break;
+            case TAG_TITLE:
+                if (!hasTitle) {
+                    titleTagEntered = true;
+                    hasTitle = true;
+                    title.setLength(0);
+                }
+                break;
+            case TAG_LINK:
+                if (authorTagEntered) {
+                    return;
+                }
+                if (REL_ENCLOSURE.equals(parser.getAttributeValue(null, ATTRIBUTE_REL))) {
+                    startEnclosure(parser, parser.getAttributeValue(null, ATTRIBUTE_HREF));
+                } else {
+                    hasEntryLink = true;
+                    entryLink.setLength(0);
+
+                    String href = parser.getAttributeValue(null, ATTRIBUTE_HREF);
+                    if (href != null) {
+                        entryLink.append(href);
+                        linkTagEntered = false;
+                    } else {
+                        linkTagEntered = true;
+                    }
+                }
+                break;
+            case TAG_DESCRIPTION:
+            case TAG_CONTENT:
+                if (!PREFIX_MEDIA.equals(parser.getPrefix())) {
+                    startDescription();
+                }
+                break;
+            case TAG_SUMMARY:
+                if (!hasDescription) {
+                    startDescription();
+                }
+                break;
+            case TAG_PUBDATE:
+                pubDateTagEntered = true;
+                dateStringBuilder.setLength(0);
+                break;
+            case TAG_PUBLISHED:
+                publishedTagEntered = true;
+                dateStringBuilder.setLength(0);
+                break;
+            case TAG_DATE:
+                dateTagEntered = true;
+                dateStringBuilder.setLength(0);
+                break;
+            case TAG_LAST_BUILD_DATE:
+                lastBuildDateTagEntered = true;
+                dateStringBuilder.setLength(0);
+                break;
+            case TAG_ENCODED_CONTENT:
+                startDescription();
+                break;
+            case TAG_ENCLOSURE:
+                startEnclosure(parser, parser.getAttributeValue(null, ATTRIBUTE_URL));
+                break;
+            case TAG_GUID:
+                guidTagEntered = true;
+                guid.setLength(0);
+                break;
+            case TAG_NAME:
+            case TAG_AUTHOR:
+            case TAG_CREATOR:
+                authorTagEntered = true;
+                if (!hasTmpAuthor) {
+                    hasTmpAuthor = true;
+                    tmpAuthor.setLength(0);
+                }
+                break;
+            case TAG_SKIP_HOURS:
+                skipHoursTagEntered = true;
+                break;
+            case TAG_SKIP_DAYS:
+                skipDaysTagEntered = true;
+                break;
+            case TAG_TTL:
+            case TAG_UPDATE_PERIOD:
+            case TAG_UPDATE_FREQUENCY:
+                if (!entryTagEntered) {
+                    refreshHint = new StringBuilder();
+                }
+                break;
+            case TAG_HOUR:
+                if (skipHoursTagEntered) {
+                    refreshHint = new StringBuilder();
+                }
+                break;
+            case TAG_DAY:
+                if (skipDaysTagEntered) {
+                    refreshHint = new StringBuilder();
+                }
+                break;
+        }
+    }
+
+    private void startDescription() {
+        descriptionTagEntered = true;
+        hasDescription = true;
+        description.setLength(0);
+    }
+
+    private void startEnclosure(XmlPullParser parser, String url) {
+        if (enclosure.length() == 0 && url != null) { // fetch the first enclosure only
+            enclosure.append(url);
+            enclosure.append(ENCLOSURE_SEPARATOR);
+
+            String value = parser.getAttributeValue(null, ATTRIBUTE_TYPE);
+
+            if (value != null) {
+                enclosure.append(value);
+            }
+            enclosure.append(ENCLOSURE_SEPARATOR);
+            value = parser.getAttributeValue(null, ATTRIBUTE_LENGTH);
+            if (value != null) {
+                enclosure.append(value);
+            }
+        }
+    }
+
+    private void text(XmlPullParser parser) {
+        StringBuilder builder = null;
+        if (titleTagEntered) {
+            builder = title;
+        } else if (linkTagEntered) {
+            builder = entryLink;
+        } else if (descriptionTagEntered) {
+            builder = description;
+        } else if (updatedTagEntered || pubDateTagEntered || publishedTagEntered || dateTagEntered || lastBuildDateTagEntered) {
+            builder = dateStringBuilder;
+        } else if (guidTagEntered) {
+            builder = guid;
+        } else if (authorTagEntered) {
+            builder = tmpAuthor;
+        } else if (refreshHint != null) {
+            builder = refreshHint;
+        }
+
+        if (builder != null) {
+            char[] text = parser.getTextCharacters(textHolder); // no String created
+            builder.append(text, textHolder[0], textHolder[1]);
+        }
+    }
+
+    private void endTag(XmlPullParser parser, int tag) {
+        switch (tag) {
+            case TAG_TITLE:
+                titleTagEntered = false;
+                break;
+            case TAG_DESCRIPTION:
+            case TAG_CONTENT:
+                if (!PREFIX_MEDIA.equals(parser.getPrefix())) { // the media:description and media:content tags were not entered
+                    descriptionTagEntered = false;
+                }
+                break;
+            case TAG_SUMMARY:
+            case TAG_ENCODED_CONTENT:
+                descriptionTagEntered = false;
+                break;
+            case TAG_LINK:
+                linkTagEntered = false;
+
+                if (feedLink == null && !entryTagEntered && hasEntryLink && parser.getPrefix() == null) { // Skip <atom10:link> tags
+                    feedLink = entryLink.toString();
+                }
+                break;
+            case TAG_UPDATED:
+                entryUpdateDate = parseDate(dateStringBuilder);
+                updatedTagEntered = false;
+                break;
+            case TAG_PUBDATE:
+                entryDate = parseDate(dateStringBuilder);
+                pubDateTagEntered = false;
+                break;
+            case TAG_PUBLISHED:
+                entryDate = parseDate(dateStringBuilder);
+                publishedTagEntered = false;
+                break;
+            case TAG_LAST_BUILD_DATE:
+                entryDate = parseDate(dateStringBuilder);
+                lastBuildDateTagEntered = false;
+                break;
+            case TAG_DATE:
+                entryDate = parseDate(dateStringBuilder);
+                dateTagEntered = false;
+                break;
+            case TAG_ENTRY:
+            case TAG_ITEM:
+                endEntry();
+                break;
+            case TAG_RSS:
+            case TAG_RDF:
+            case TAG_FEED:
+                done = true;
+                break;
+            case TAG_GUID:
+                guidTagEntered = false;
+                break;
+            case TAG_NAME:
+            case TAG_AUTHOR:
+            case TAG_CREATOR:
+                endAuthor();
+                break;
+            case TAG_SKIP_HOURS:
+                skipHoursTagEntered = false;
+                break;
+            case TAG_SKIP_DAYS:
+                skipDaysTagEntered = false;
+                break;
+            default:
+                endRefreshHint(tag);
+                break;
+        }
+    }
+
+    private void endEntry() {
+        entryTagEntered = false;
+
+        boolean updateOnly = false;
+        // Old entryDate but recent update date => we need to not insert it!
+        if (entryUpdateDate != null && entryDate != null && (entryDate.before(realLastUpdateDate) || entryDate.before(keepDateBorder))) {
+            updateOnly = true;
+            if (entryUpdateDate.after(entryDate)) {
+                entryDate = entryUpdateDate;
+            }
+        } else if (entryDate == null && entryUpdateDate != null) { // only one updateDate, copy it into entryDate
+            entryDate = entryUpdateDate;
+        } else if (entryDate == null && entryUpdateDate == null) { // nothing, we need to retrieve the previous date
+            entryDate = previousEntryDate;
+            entryUpdateDate = previousEntryUpdateDate;
+        }
+
+        if (hasTitle && (entryDate == null || (entryDate.after(realLastUpdateDate) && entryDate.after(keepDateBorder)))) {
+            if (entryDate != null && entryDate.getTime() > newRealLastUpdate) {
+                newRealLastUpdate = entryDate.getTime();
+            }
+
+            String enclosureString = enclosure.length() > 0 ? enclosure.toString() : null;
+            String guidString = guid.length() > 0 ? guid.toString() : null;
+            String entryLinkString = ""; // don't set this to null as we need *some* value
+
+            if (hasEntryLink && entryLink.length() > 0) {
+                entryLinkString = entryLink.toString().trim();
+                if (feedBaseUrl != null && !entryLinkString.startsWith(HTTP) && !entryLinkString.startsWith(HTTPS)) {
+                    entryLinkString = feedBaseUrl
+                            + (entryLinkString.startsWith(SLASH) ? entryLinkString : SLASH + entryLinkString);
+                }
+            }
+
+            // Without link nor guid, there is no way to recognize an entry
+            String uid = !entryLinkString.isEmpty() || guidString != null ? getEntryUid(entryLinkString, enclosureString, guidString)
+                    : null;
+            boolean isUpdated = uid != null && sink.isKnownEntry(uid);
+            long contentHash = isUpdated || !updateOnly ? getContentHash() : 0;
+
+            if (isUpdated && sink.isUnchangedEntry(uid, contentHash)) {
+                // Nothing to rewrite, but like for an update there is no need to continue without date
+                if (entryDate == null) {
+                    cancel();
+                }
+            } else if (isUpdated || !updateOnly) { // the title and the content are only decoded for the entries which will be saved
+                Entry entry = new Entry();
+                entry.contentHash = contentHash;
+                entry.title = unescapeTitle(title.toString().trim());
+
+                if (hasDescription) {
+                    // Improve the description
+                    ArrayList<String> images = imageUrlPrefix != null ? new ArrayList<String>(4) : null;
+                    String content = HtmlSanitizer.sanitize(description.toString(), imageUrlPrefix, images);
+                    if (content.length() > 0) {
+                        entry.content = content;
+                        entry.images = images;
+                    }
+                }
+
+                // Try to find if the entry is not filtered and need to be processed
+                if (!sink.isEntryFiltered(entry.title, entry.content)) {
+                    if (author.length() > 0) {
+                        entry.author = author.toString();
+                    }
+                    entry.enclosure = enclosureString;
+                    entry.guid = guidString;
+                    entry.link = entryLinkString;
+                    entry.uid = uid;
+
+                    if (isUpdated) {
+                        // Already known, just update it
+                        sink.updateEntry(entry);
+                    } else { // Insert it only if necessary
+                        // We put the date only for new entry (no need to change the past, you may already read it)
+                        entry.date = entryDate != null ? entryDate.getTime() : now--; // -1 to keep the good entries order
+
+                        sink.insertEntry(entry);
+                        newCount++;
+                    }
+
+                    // No date, but we managed to update an entry => we already parsed the following entries and don't need to continue
+                    if (isUpdated && entryDate == null) {
+                        cancel();
+                    }
+                }
+            }
+        } else {
+            cancel();
+        }
+        hasDescription = false;
+        hasTitle = false;
+        enclosure.setLength(0);
+        guid.setLength(0);
+        author.setLength(0);
+    }
+
+    /**
+     * FNV-1a hash of the raw title, description and author, plus whether the images are fetched as it changes the saved content
+     */
+    private long getContentHash() {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, title);
+        hash = (hash ^ (hasDescription ? 1 : 0)) * FNV_PRIME;
+        if (hasDescription) {
+            hash = hash(hash, description);
+        }
+        hash = hash(hash, author);
+        return (hash ^ (imageUrlPrefix != null ? 1 : 0)) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ 0xffff) * FNV_PRIME; // separator, not a valid character
+    }
+
+    private void endAuthor() {
+        authorTagEntered = false;
+
+        if (hasTmpAuthor && tmpAuthor.indexOf("@") == -1) { // no email
+            if (author.length() == 0) {
+                author.append(tmpAuthor);
+            } else { // this indicates multiple authors
+                boolean found = false;
+                for (String previousAuthor : author.toString().split(",")) {
+                    if (previousAuthor.equals(tmpAuthor.toString())) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    author.append(COMMA_SPACE);
+                    author.append(tmpAuthor);
+                }
+            }
+        }
+
+        hasTmpAuthor = false;
+    }
+
+    private void endRefreshHint(int tag) {
+        if (refreshHint == null) {
+            return;
+        }
+
+        String value = refreshHint.toString().trim();
+        refreshHint = null;
+
+        try {
+            switch (tag) {
+                case TAG_TTL:
+                    ttl = Long.parseLong(value) * 60000l; // in minutes
+                    refreshHintFound = true;
+                    break;
+                case TAG_UPDATE_FREQUENCY:
+                    updateFrequency = Math.max(1, Integer.parseInt(value));
+                    refreshHintFound = true;
+                    break;
+                case TAG_UPDATE_PERIOD:
+                    for (int i = 0; i < UPDATE_PERIODS.length; i++) {
+                        if (UPDATE_PERIODS[i].equalsIgnoreCase(value)) {
+                            updatePeriod = UPDATE_PERIODS_DURATION[i];
+                            refreshHintFound = true;
+                        }
+                    }
+                    break;
+                case TAG_HOUR:
+                    skipHours |= 1 << (Integer.parseInt(value) % 24); // in GMT, some feeds use 24 for midnight
+                    refreshHintFound = true;
+                    break;
+                case TAG_DAY:
+                    for (int i = 0; i < DAYS.length; i++) {
+                        if (DAYS[i].equalsIgnoreCase(value)) {
+                            skipDays |= 1 << i;
+                            refreshHintFound = true;
+                        }
+                    }
+                    break;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+    }
+
+    private void cancel() {
+        cancelled = true;
+        done = true;
+    }
+
+    private Date parseDate(CharSequence dateStr) {
+        long result = dateParser.parse(dateStr);
+        if (result == FeedDateParser.INVALID_DATE) {
+            return null;
+        }
+        return new Date(result > now ? now : result);
+    }
+
+    public String getFeedLink() {
+        return feedLink;
+    }
+
+    /**
+     * @return the title found in the feed, or null
+     */
+    public String getFeedTitle() {
+        return feedTitle;
+    }
+
+    public int getNewCount() {
+        return newCount;
+    }
+
+    /**
+     * @return the date of the most recent entry saved so far
+     */
+    public long getRealLastUpdate() {
+        return newRealLastUpdate;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return true if the parsing stopped at the already known entries
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the refresh hints below are known: the feed gave some, or it was parsed entirely without finding any
+     */
+    public boolean hasRefreshHints() {
+        return refreshHintFound || !cancelled; // the hints may be after the items, we only know there is none if everything was parsed
+    }
+
+    /**
+     * @return the minimal time between two fetches asked by the publisher, or 0
+     */
+    public long getPublisherTtl() {
+        return Math.max(ttl, updatePeriod / updateFrequency);
+    }
+
+    /**
+     * @return the GMT hours during which the feed should not be fetched, as a bit mask
+     */
+    public int getSkipHours() {
+        return skipHours;
+    }
+
+    /**
+     * @return the days (from sunday) during which the feed should not be fetched, as a bit mask
+     */
+    public int getSkipDays() {
+        return skipDays;
+    }
+
+    /**
+     * Stable identity of an entry inside its feed, computed from everything which was used to recognize an already known entry: its link,
+     * enclosure and guid.
+     */
+    public static String getEntryUid(String link, String enclosure, String guid) {
+        StringBuilder identity = new StringBuilder(link != null ? link : "");
+        identity.append('\n');
+        if (enclosure != null) {
+            identity.append(enclosure);
+        }
+        identity.append('\n');
+        if (guid != null) {
+            identity.append(guid);
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance(UID_DIGEST).digest(identity.toString().getBytes(UTF8));
+
+            StringBuilder uid = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                uid.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+            }
+            return uid.toString();
+        } catch (Exception e) { // MD5 & UTF-8 are always there
+            return identity.toString();
+        }
+    }
+
+    // The titles are often escaped twice ("&amp;eacute;") and may hold some markup
+    private static String unescapeTitle(String title) {
+        return HtmlEntities.unescape(HTML_TAG_PATTERN.matcher(title.replace(AMP_SG, AMP)).replaceAll(""));
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.parser;
+
+/**
+ * Receives what a FeedParser finds in a feed, and knows about the entries already saved.
+ */
+public interface FeedSink {
+
+    /**
+     * @param content the cleaned content of the entry, or null
+     * @return true if the entry must be ignored
+     */
+    boolean isEntryFiltered(String title, String content);
+
+    /**
+     * @return true if an entry with this uid is already saved, it is then given to updateEntry() instead of insertEntry()
+     */
+    boolean isKnownEntry(String uid);
+
+    /**
+     * @param contentHash the FeedParser.Entry.contentHash of the known entry as found in the feed, before it is decoded
+     * @return true if it was saved with this hash, it is then neither decoded nor given to updateEntry()
+     */
+    boolean isUnchangedEntry(String uid, long contentHash);
+
+    /**
+     * Called for each new entry, in the order of the feed.
+     */
+    void insertEntry(FeedParser.Entry entry);
+
+    /**
+     * Called for each already known entry. Only its title, content, author, enclosure and guid are to be updated.
+     */
+    void updateEntry(FeedParser.Entry entry);
+
+    /**
+     * Called once the feed is parsed, or as soon as the parser found the already known entries. Never called if the parsing failed.
+     */
+    void onFeedParsed(FeedParser parser);
+}
@@ -44,641 +44,234 @@
 
 package net.woocheol.inventoryman.parser;
 
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderResult;
-import android.content.ContentResolver;
-import android.content.ContentValues;
-import android.database.Cursor;
-import android.net.Uri;
-import android.text.Html;
-import android.util.Pair;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
 import net.woocheol.inventoryman.Constants;
 import net.woocheol.inventoryman.MainApplication;
 import net.woocheol.inventoryman.provider.FeedData;
-import net.woocheol.inventoryman.provider.FeedDataContentProvider;
 import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
 import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
-import net.woocheol.inventoryman.provider.FeedData.FilterColumns;
+import net.woocheol.inventoryman.provider.FeedDataContentProvider;
 import net.woocheol.inventoryman.service.FetcherService;
 import net.woocheol.inventoryman.utils.NetworkUtils;
 import net.woocheol.inventoryman.utils.PrefUtils;
 
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.helpers.DefaultHandler;
+import org.xmlpull.v1.XmlPullParserException;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-public class RssAtomParser extends DefaultHandler {
-
-    private static final String AND_SHARP = "&#";
-    private static final String HTML_TAG_REGEX = "<(.|\n)*?>";
-
-    private static final String TAG_RSS = "rss";
-    private static final String TAG_RDF = "rdf";
-    private static final String TAG_FEED = "feed";
-    private static final String TAG_ENTRY = "entry";
-    private static final String TAG_ITEM = "item";
-    private static final String TAG_UPDATED = "updated";
-    private static final String TAG_TITLE = "title";
-    private static final String TAG_LINK = "link";
-    private static final String TAG_DESCRIPTION = "description";
-    private static final String TAG_MEDIA_DESCRIPTION = "media:description";
-    private static final String TAG_CONTENT = "content";
-    private static final String TAG_MEDIA_CONTENT = "media:content";
-    private static final String TAG_ENCODED_CONTENT = "encoded";
-    private static final String TAG_SUMMARY = "summary";
-    private static final String TAG_PUBDATE = "pubDate";
-    private static final String TAG_PUBLISHED = "published";
-    private static final String TAG_DATE = "date";
-    private static final String TAG_LAST_BUILD_DATE = "lastBuildDate";
-    private static final String TAG_ENCLOSURE = "enclosure";
-    private static final String TAG_GUID = "guid";
-    private static final String TAG_AUTHOR = "author";
-    private static final String TAG_CREATOR = "creator";
-    private static final String TAG_NAME = "name";
-
-    private static final String ATTRIBUTE_URL = "url";
-    private static final String ATTRIBUTE_HREF = "href";
-    private static final String ATTRIBUTE_TYPE = "type";
-    private static final String ATTRIBUTE_LENGTH = "length";
-    private static final String ATTRIBUTE_REL = "rel";
-
-    private static final String[][] TIMEZONES_REPLACE = {{"MEST", "+0200"}, {"EST", "-0500"}, {"PST", "-0800"}};
-
-    private static final DateFormat[] PUBDATE_DATE_FORMATS = {new SimpleDateFormat("d' 'MMM' 'yyyy' 'HH:mm:ss", Locale.US),
-            new SimpleDateFormat("d' 'MMM' 'yyyy' 'HH:mm:ss' 'Z", Locale.US), new SimpleDateFormat("d' 'MMM' 'yyyy' 'HH:mm:ss' 'z", Locale.US)};
-
-    private static final DateFormat[] UPDATE_DATE_FORMATS = {new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss", Locale.US),
-            new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ssZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSSz", Locale.US),
-            new SimpleDateFormat("yyyy-MM-dd", Locale.US)};
-
-    private final Date realLastUpdateDate;
-    private long newRealLastUpdate;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
 
-    private final String id;
+/**
+ * Parses a feed with a FeedParser and saves its entries through the content provider.
+ */
+public class RssAtomParser implements FeedSink {
 
-    private boolean entryTagEntered = false;
-    private boolean titleTagEntered = false;
-    private boolean updatedTagEntered = false;
-    private boolean linkTagEntered = false;
-    private boolean descriptionTagEntered = false;
-    private boolean pubDateTagEntered = false;
-    private boolean publishedTagEntered = false;
-    private boolean dateTagEntered = false;
-    private boolean lastBuildDateTagEntered = false;
-    private boolean guidTagEntered = false;
-    private boolean authorTagEntered = false;
-
-    private StringBuilder title;
-    private StringBuilder dateStringBuilder;
-    private String feedLink;
-    private Date entryDate;
-    private Date entryUpdateDate;
-    private Date previousEntryDate;
-    private Date previousEntryUpdateDate;
-    private StringBuilder entryLink;
-    private StringBuilder description;
-    private StringBuilder enclosure;
-    private final Uri feedEntriesUri;
-    private int newCount = 0;
+    private final String id;
     private final String feedName;
-    private String feedTitle;
-    private String feedBaseUrl;
-    private boolean done = false;
-    private final Date keepDateBorder;
+    private final Uri feedEntriesUri;
+    private final FeedParser parser;
+    private final FeedFilters filters;
     private boolean fetchImages = false;
     private boolean retrieveFullText = false;
-    private boolean cancelled = false;
-    private long now = System.currentTimeMillis();
-    private StringBuilder guid;
-    private StringBuilder author, tmpAuthor;
-
-    private final FeedFilters filters;
+    private String httpEtag;
+    private String httpLastModified;
 
+    private final HashMap<String, Long> knownEntries = new HashMap<String, Long>(); // uid => content hash, null if not computed yet
     private final ArrayList<ContentProviderOperation> inserts = new ArrayList<ContentProviderOperation>();
-    private final ArrayList<Vector<String>> entriesImages = new ArrayList<Vector<String>>();
+    private final ArrayList<ContentProviderOperation> updates = new ArrayList<ContentProviderOperation>();
+    private final ArrayList<List<String>> entriesImages = new ArrayList<List<String>>();
 
     public RssAtomParser(Date realLastUpdateDate, final String id, String feedName, String url, boolean retrieveFullText) {
         long keepTime = Long.parseLong(PrefUtils.getString(PrefUtils.KEEP_TIME, "4")) * 86400000l;
         long keepDateBorderTime = keepTime > 0 ? System.currentTimeMillis() - keepTime : 0;
 
-        keepDateBorder = new Date(keepDateBorderTime);
-        this.realLastUpdateDate = realLastUpdateDate;
-        newRealLastUpdate = realLastUpdateDate.getTime();
         this.id = id;
         this.feedName = feedName;
         feedEntriesUri = EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(id);
         this.retrieveFullText = retrieveFullText;
 
-        filters = new FeedFilters(id);
-
-        // Remove old stuffs
-        final String query = EntryColumns.DATE + '<' + keepDateBorderTime + Constants.DB_AND + EntryColumns.WHERE_NOT_FAVORITE;
-        NetworkUtils.deleteFeedImagesCache(feedEntriesUri, query);
-        MainApplication.getContext().getContentResolver().delete(feedEntriesUri, query, null);
-
-        int index = url.indexOf('/', 8); // this also covers https://
-        if (index > -1) {
-            feedBaseUrl = url.substring(0, index);
-        }
-    }
-
-    @Override
-    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-        if (TAG_UPDATED.equals(localName)) {
-            updatedTagEntered = true;
-            dateStringBuilder = new StringBuilder();
-        } else if (TAG_ENTRY.equals(localName) || TAG_ITEM.equals(localName)) {
-            entryTagEntered = true;
-            description = null;
-            entryLink = null;
-
-            // Save the previous (if no date are found for this entry)
-            previousEntryDate = entryDate;
-            previousEntryUpdateDate = entryUpdateDate;
-            entryDate = null;
-            entryUpdateDate = null;
-
-            // This is the retrieved feed title
-            if (feedTitle == null && title != null && title.length() > 0) {
-                feedTitle = title.toString();
-            }
-            title = null;
-        } else if (TAG_TITLE.equals(localName)) {
-            if (title == null) {
-                titleTagEntered = true;
-                title = new StringBuilder();
-            }
-        } else if (TAG_LINK.equals(localName)) {
-            if (authorTagEntered) {
-                return;
-            }
-            if (TAG_ENCLOSURE.equals(attributes.getValue("", ATTRIBUTE_REL))) {
-                startEnclosure(attributes, attributes.getValue("", ATTRIBUTE_HREF));
-            } else {
-                entryLink = new StringBuilder();
-
-                boolean foundLink = false;
-
-                for (int n = 0, i = attributes.getLength(); n < i; n++) {
-                    if (ATTRIBUTE_HREF.equals(attributes.getLocalName(n))) {
-                        if (attributes.getValue(n) != null) {
-                            entryLink.append(attributes.getValue(n));
-                            foundLink = true;
-                            linkTagEntered = false;
-                        } else {
-                            linkTagEntered = true;
-                        }
-                        break;
-                    }
-                }
-                if (!foundLink) {
-                    linkTagEntered = true;
-                }
-            }
-        } else if ((TAG_DESCRIPTION.equals(localName) && !TAG_MEDIA_DESCRIPTION.equals(qName))
-                || (TAG_CONTENT.equals(localName) && !TAG_MEDIA_CONTENT.equals(qName))) {
-            descriptionTagEntered = true;
-            description = new StringBuilder();
-        } else if (TAG_SUMMARY.equals(localName)) {
-            if (description == null) {
-                descriptionTagEntered = true;
-                description = new StringBuilder();
-            }
-        } else if (TAG_PUBDATE.equals(localName)) {
-            pubDateTagEntered = true;
-            dateStringBuilder = new StringBuilder();
-        } else if (TAG_PUBLISHED.equals(localName)) {
-            publishedTagEntered = true;
-            dateStringBuilder = new StringBuilder();
-        } else if (TAG_DATE.equals(localName)) {
-            dateTagEntered = true;
-            dateStringBuilder = new StringBuilder();
-        } else if (TAG_LAST_BUILD_DATE.equals(localName)) {
-            lastBuildDateTagEntered = true;
-            dateStringBuilder = new StringBuilder();
-        } else if (TAG_ENCODED_CONTENT.equals(localName)) {
-            descriptionTagEntered = true;
-            description = new StringBuilder();
-        } else if (TAG_ENCLOSURE.equals(localName)) {
-            startEnclosure(attributes, attributes.getValue("", ATTRIBUTE_URL));
-        } else if (TAG_GUID.equals(localName)) {
-            guidTagEntered = true;
-            guid = new StringBuilder();
-        } else if (TAG_NAME.equals(localName) || TAG_AUTHOR.equals(localName) || TAG_CREATOR.equals(localName)) {
-            authorTagEntered = true;
-            if (tmpAuthor == null) {
-                tmpAuthor = new StringBuilder();
-            }
-        }
-    }
-
-    private void startEnclosure(Attributes attributes, String url) {
-        if (enclosure == null) { // fetch the first enclosure only
-            enclosure = new StringBuilder(url);
-            enclosure.append(Constants.ENCLOSURE_SEPARATOR);
+        parser = new FeedParser(this, id, url, realLastUpdateDate, new Date(keepDateBorderTime));
+        filters = FeedFiltersCache.getFeedFilters(id);
 
-            String value = attributes.getValue("", ATTRIBUTE_TYPE);
-
-            if (value != null) {
-                enclosure.append(value);
-            }
-            enclosure.append(Constants.ENCLOSURE_SEPARATOR);
-            value = attributes.getValue("", ATTRIBUTE_LENGTH);
-            if (value != null) {
-                enclosure.append(value);
-            }
+        // Load the identity and the content hash of the known entries at once, instead of looking for each parsed entry in the database
+        Cursor cursor = MainApplication.getContext().getContentResolver().query(feedEntriesUri, new String[]{EntryColumns.UID,
+                EntryColumns.CONTENT_HASH}, EntryColumns.UID + Constants.DB_IS_NOT_NULL, null, null);
+        while (cursor.moveToNext()) {
+            knownEntries.put(cursor.getString(0), cursor.isNull(1) ? null : cursor.getLong(1));
         }
+        cursor.close();
     }
 
-    @Override
-    public void characters(char[] ch, int start, int length) throws SAXException {
-        if (titleTagEntered) {
-            title.append(ch, start, length);
-        } else if (linkTagEntered) {
-            entryLink.append(ch, start, length);
-        } else if (descriptionTagEntered) {
-            description.append(ch, start, length);
-        } else if (updatedTagEntered || pubDateTagEntered || publishedTagEntered || dateTagEntered || lastBuildDateTagEntered) {
-            dateStringBuilder.append(ch, start, length);
-        } else if (guidTagEntered) {
-            guid.append(ch, start, length);
-        } else if (authorTagEntered) {
-            tmpAuthor.append(ch, start, length);
-        }
+    /**
+     * @param encoding the encoding of the stream, or null to detect it
+     */
+    public void parse(InputStream inputStream, String encoding) throws XmlPullParserException, IOException {
+        parser.parse(inputStream, encoding);
     }
 
-    @Override
-    public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (TAG_TITLE.equals(localName)) {
-            titleTagEntered = false;
-        } else if ((TAG_DESCRIPTION.equals(localName) && !TAG_MEDIA_DESCRIPTION.equals(qName)) || TAG_SUMMARY.equals(localName)
-                || (TAG_CONTENT.equals(localName) && !TAG_MEDIA_CONTENT.equals(qName)) || TAG_ENCODED_CONTENT.equals(localName)) {
-            descriptionTagEntered = false;
-        } else if (TAG_LINK.equals(localName)) {
-            linkTagEntered = false;
-
-            if (feedLink == null && !entryTagEntered && TAG_LINK.equals(qName)) { // Skip <atom10:link> tags
-                feedLink = entryLink.toString();
-            }
-        } else if (TAG_UPDATED.equals(localName)) {
-            entryUpdateDate = parseUpdateDate(dateStringBuilder.toString());
-            updatedTagEntered = false;
-        } else if (TAG_PUBDATE.equals(localName)) {
-            entryDate = parsePubdateDate(dateStringBuilder.toString());
-            pubDateTagEntered = false;
-        } else if (TAG_PUBLISHED.equals(localName)) {
-            entryDate = parsePubdateDate(dateStringBuilder.toString());
-            publishedTagEntered = false;
-        } else if (TAG_LAST_BUILD_DATE.equals(localName)) {
-            entryDate = parsePubdateDate(dateStringBuilder.toString());
-            lastBuildDateTagEntered = false;
-        } else if (TAG_DATE.equals(localName)) {
-            entryDate = parseUpdateDate(dateStringBuilder.toString());
-            dateTagEntered = false;
-        } else if (TAG_ENTRY.equals(localName) || TAG_ITEM.equals(localName)) {
-            entryTagEntered = false;
-
-            boolean updateOnly = false;
-            // Old entryDate but recent update date => we need to not insert it!
-            if (entryUpdateDate != null && entryDate != null && (entryDate.before(realLastUpdateDate) || entryDate.before(keepDateBorder))) {
-                updateOnly = true;
-                if (entryUpdateDate.after(entryDate)) {
-                    entryDate = entryUpdateDate;
-                }
-            } else if (entryDate == null && entryUpdateDate != null) { // only one updateDate, copy it into entryDate
-                entryDate = entryUpdateDate;
-            } else if (entryDate == null && entryUpdateDate == null) { // nothing, we need to retrieve the previous date
-                entryDate = previousEntryDate;
-                entryUpdateDate = previousEntryUpdateDate;
-            }
-
-            if (title != null && (entryDate == null || (entryDate.after(realLastUpdateDate) && entryDate.after(keepDateBorder)))) {
-                ContentValues values = new ContentValues();
-
-                if (entryDate != null && entryDate.getTime() > newRealLastUpdate) {
-                    newRealLastUpdate = entryDate.getTime();
-                }
-
-                String improvedTitle = unescapeTitle(title.toString().trim());
-                values.put(EntryColumns.TITLE, improvedTitle);
-
-                Pair<String, Vector<String>> improvedContent = null;
-                if (description != null) {
-                    // Improve the description
-                    improvedContent = FetcherService.improveHtmlContent(description.toString(), fetchImages);
-                    entriesImages.add(improvedContent.second);
-                    if (improvedContent.first != null) {
-                        values.put(EntryColumns.ABSTRACT, improvedContent.first);
-                    }
-                }
-
-                // Try to find if the entry is not filtered and need to be processed
-                if (!filters.isEntryFiltered(improvedTitle, improvedContent == null ? null : improvedContent.first)) {
-
-                    if (author != null) {
-                        values.put(EntryColumns.AUTHOR, author.toString());
-                    }
-
-                    String enclosureString = null;
-                    StringBuilder existanceStringBuilder = new StringBuilder(EntryColumns.LINK).append(Constants.DB_ARG);
-
-                    if (enclosure != null && enclosure.length() > 0) {
-                        enclosureString = enclosure.toString();
-                        values.put(EntryColumns.ENCLOSURE, enclosureString);
-                        existanceStringBuilder.append(Constants.DB_AND).append(EntryColumns.ENCLOSURE).append(Constants.DB_ARG);
-                    }
-
-                    String guidString = null;
-
-                    if (guid != null && guid.length() > 0) {
-                        guidString = guid.toString();
-                        values.put(EntryColumns.GUID, guidString);
-                        existanceStringBuilder.append(Constants.DB_AND).append(EntryColumns.GUID).append(Constants.DB_ARG);
-                    }
-
-                    String entryLinkString = ""; // don't set this to null as we need *some* value
-
-                    if (entryLink != null && entryLink.length() > 0) {
-                        entryLinkString = entryLink.toString().trim();
-                        if (feedBaseUrl != null && !entryLinkString.startsWith(Constants.HTTP) && !entryLinkString.startsWith(Constants.HTTPS)) {
-                            entryLinkString = feedBaseUrl
-                                    + (entryLinkString.startsWith(Constants.SLASH) ? entryLinkString : Constants.SLASH + entryLinkString);
-                        }
-                    }
-
-                    String[] existanceValues = enclosureString != null ? (guidString != null ? new String[]{entryLinkString, enclosureString,
-                            guidString} : new String[]{entryLinkString, enclosureString}) : (guidString != null ? new String[]{entryLinkString,
-                            guidString} : new String[]{entryLinkString});
-
-                    // First, try to update the feed
-                    ContentResolver cr = MainApplication.getContext().getContentResolver();
-                    boolean isUpdated = (!entryLinkString.isEmpty() || guidString != null)
-                            && cr.update(feedEntriesUri, values, existanceStringBuilder.toString(), existanceValues) != 0;
-
-                    // Insert it only if necessary
-                    if (!isUpdated && !updateOnly) {
-                        // We put the date only for new entry (no need to change the past, you may already read it)
-                        if (entryDate != null) {
-                            values.put(EntryColumns.DATE, entryDate.getTime());
-                        } else {
-                            values.put(EntryColumns.DATE, now--); // -1 to keep the good entries order
-                        }
-
-                        values.put(EntryColumns.LINK, entryLinkString);
-
-                        // We cannot update, we need to insert it
-                        inserts.add(ContentProviderOperation.newInsert(feedEntriesUri).withValues(values).build());
-
-                        newCount++;
-                    }
-
-                    // No date, but we managed to update an entry => we already parsed the following entries and don't need to continue
-                    if (isUpdated && entryDate == null) {
-                        cancel();
-                    }
-                }
-            } else {
-                cancel();
-            }
-            description = null;
-            title = null;
-            enclosure = null;
-            guid = null;
-            author = null;
-        } else if (TAG_RSS.equals(localName) || TAG_RDF.equals(localName) || TAG_FEED.equals(localName)) {
-            done = true;
-        } else if (TAG_GUID.equals(localName)) {
-            guidTagEntered = false;
-        } else if (TAG_NAME.equals(localName) || TAG_AUTHOR.equals(localName) || TAG_CREATOR.equals(localName)) {
-            authorTagEntered = false;
-
-            if (tmpAuthor != null && tmpAuthor.indexOf("@") == -1) { // no email
-                if (author == null) {
-                    author = new StringBuilder(tmpAuthor);
-                } else { // this indicates multiple authors
-                    boolean found = false;
-                    for (String previousAuthor : author.toString().split(",")) {
-                        if (previousAuthor.equals(tmpAuthor.toString())) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (!found) {
-                        author.append(Constants.COMMA_SPACE);
-                        author.append(tmpAuthor);
-                    }
-                }
-            }
-
-            tmpAuthor = null;
-        }
+    public void parse(Reader reader) throws XmlPullParserException, IOException {
+        parser.parse(reader);
     }
 
     public String getFeedLink() {
-        return feedLink;
+        return parser.getFeedLink();
     }
 
     public int getNewCount() {
-        return newCount;
+        return parser.getNewCount();
     }
 
     public boolean isDone() {
-        return done;
+        return parser.isDone();
     }
 
     public boolean isCancelled() {
-        return cancelled;
-    }
-
-    private void cancel() throws SAXException {
-        if (!cancelled) {
-            cancelled = true;
-            done = true;
-            endDocument();
-
-            throw new SAXException("Finished");
-        }
+        return parser.isCancelled();
     }
 
     public void setFetchImages(boolean fetchImages) {
         this.fetchImages = fetchImages;
+        parser.setImageUrlPrefix(fetchImages ? NetworkUtils.IMAGE_URL_PREFIX : null);
     }
 
-    private Date parseUpdateDate(String dateStr) {
-        dateStr = improveDateString(dateStr);
-        return parseUpdateDate(dateStr, true);
+    /**
+     * Validators of the response being parsed, saved with the feed so the next fetch can be a conditional GET.
+     */
+    public void setHttpValidators(String etag, String lastModified) {
+        httpEtag = etag;
+        httpLastModified = lastModified;
     }
 
-    private Date parseUpdateDate(String dateStr, boolean tryAllFormat) {
-        for (DateFormat format : UPDATE_DATE_FORMATS) {
-            try {
-                Date result = format.parse(dateStr);
-                return (result.getTime() > now ? new Date(now) : result);
-            } catch (ParseException ignored) {
-            } // just do nothing
-        }
-
-        if (tryAllFormat)
-            return parsePubdateDate(dateStr, false);
-        else
-            return null;
+    @Override
+    public boolean isEntryFiltered(String title, String content) {
+        return filters.isEntryFiltered(title, content);
     }
 
-    private Date parsePubdateDate(String dateStr) {
-        dateStr = improveDateString(dateStr);
-        return parsePubdateDate(dateStr, true);
+    @Override
+    public boolean isKnownEntry(String uid) {
+        return knownEntries.containsKey(uid);
     }
 
-    private Date parsePubdateDate(String dateStr, boolean tryAllFormat) {
-        for (DateFormat format : PUBDATE_DATE_FORMATS) {
-            try {
-                Date result = format.parse(dateStr);
-                return (result.getTime() > now ? new Date(now) : result);
-            } catch (ParseException ignored) {
-            } // just do nothing
-        }
-
-        if (tryAllFormat)
-            return parseUpdateDate(dateStr, false);
-        else
-            return null;
+    @Override
+    public boolean isUnchangedEntry(String uid, long contentHash) {
+        Long savedHash = knownEntries.get(uid);
+        return savedHash != null && savedHash == contentHash;
     }
 
-    private String improveDateString(String dateStr) {
-        // We remove the first part if necessary (the day display)
-        int coma = dateStr.indexOf(", ");
-        if (coma != -1) {
-            dateStr = dateStr.substring(coma + 2);
-        }
-
-        dateStr = dateStr.replace("T", " ").replace("Z", "").replaceAll("  ", " ").trim(); // fix useless char
-
-        // Replace bad timezones
-        for (String[] timezoneReplace : TIMEZONES_REPLACE) {
-            dateStr = dateStr.replace(timezoneReplace[0], timezoneReplace[1]);
+    @Override
+    public void insertEntry(FeedParser.Entry entry) {
+        ContentValues values = getEntryValues(entry);
+        values.put(EntryColumns.DATE, entry.date);
+        values.put(EntryColumns.LINK, entry.link);
+        if (entry.uid != null) {
+            values.put(EntryColumns.UID, entry.uid);
+            knownEntries.put(entry.uid, entry.contentHash); // the same entry may be twice in the feed
         }
 
-        return dateStr;
-    }
-
-    private static String unescapeTitle(String title) {
-        String result = title.replace(Constants.AMP_SG, Constants.AMP).replaceAll(HTML_TAG_REGEX, "").replace(Constants.HTML_LT, Constants.LT)
-                .replace(Constants.HTML_GT, Constants.GT).replace(Constants.HTML_QUOT, Constants.QUOT)
-                .replace(Constants.HTML_APOSTROPHE, Constants.APOSTROPHE);
-
-        if (result.contains(AND_SHARP)) {
-            return Html.fromHtml(result, null, null).toString();
-        } else {
-            return result;
-        }
+        inserts.add(ContentProviderOperation.newInsert(feedEntriesUri).withValues(values).build());
+        entriesImages.add(entry.images);
     }
 
     @Override
-    public void warning(SAXParseException e) throws SAXException {
-        // ignore warnings
+    public void updateEntry(FeedParser.Entry entry) {
+        knownEntries.put(entry.uid, entry.contentHash);
+        updates.add(ContentProviderOperation.newUpdate(feedEntriesUri).withValues(getEntryValues(entry))
+                .withSelection(EntryColumns.UID + Constants.DB_ARG, new String[]{entry.uid}).build());
     }
 
-    @Override
-    public void error(SAXParseException e) throws SAXException {
-        // ignore small errors
+    private static ContentValues getEntryValues(FeedParser.Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(EntryColumns.TITLE, entry.title);
+        values.put(EntryColumns.CONTENT_HASH, entry.contentHash);
+        if (entry.content != null) {
+            values.put(EntryColumns.ABSTRACT, entry.content);
+        }
+        if (entry.author != null) {
+            values.put(EntryColumns.AUTHOR, entry.author);
+        }
+        if (entry.enclosure != null) {
+            values.put(EntryColumns.ENCLOSURE, entry.enclosure);
+        }
+        if (entry.guid != null) {
+            values.put(EntryColumns.GUID, entry.guid);
+        }
+        return values;
     }
 
     @Override
-    public void endDocument() throws SAXException {
+    public void onFeedParsed(FeedParser parser) {
         ContentResolver cr = MainApplication.getContext().getContentResolver();
 
+        boolean entriesSaved = true;
         try {
-            if (!inserts.isEmpty()) {
-                ContentProviderResult[] results = cr.applyBatch(FeedData.AUTHORITY, inserts);
-                cr.notifyChange(EntryColumns.CONTENT_URI, null);
-                FeedDataContentProvider.notifyGroupFromFeedId(id);
-
-                if (fetchImages) {
-                    for (int i = 0; i < results.length; ++i) {
-                        Vector<String> images = entriesImages.get(i);
-                        if (images != null) {
-                            FetcherService.addImagesToDownload(results[i].uri.getLastPathSegment(), images);
+            if (!inserts.isEmpty() || !updates.isEmpty()) {
+                // The inserts first, so their results are the first ones
+                ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(inserts);
+                operations.addAll(updates);
+                ContentProviderResult[] results = cr.applyBatch(FeedData.AUTHORITY, operations);
+
+                if (!inserts.isEmpty()) {
+                    cr.notifyChange(EntryColumns.CONTENT_URI, null);
+                    FeedDataContentProvider.notifyGroupFromFeedId(id);
+                }
+
+                ArrayList<Long> entriesId = new ArrayList<Long>(inserts.size());
+                for (int i = 0; i < inserts.size(); ++i) {
+                    // Already inserted meanwhile by another refresh, which also queued its tasks
+                    if (results[i].uri.getQueryParameter(FeedData.QUERY_PARAMETER_EXISTING) == null) {
+                        String entryId = results[i].uri.getLastPathSegment();
+                        entriesId.add(Long.valueOf(entryId));
+
+                        List<String> images = entriesImages.get(i);
+                        if (fetchImages && images != null) {
+                            FetcherService.addImagesToDownload(entryId, images);
                         }
                     }
                 }
 
-                if (retrieveFullText) {
-                    long[] entriesId = new long[results.length];
-                    for (int i = 0; i < results.length; i++) {
-                        entriesId[i] = Long.valueOf(results[i].uri.getLastPathSegment());
+                if (retrieveFullText && !entriesId.isEmpty()) {
+                    long[] entriesIdArray = new long[entriesId.size()];
+                    for (int i = 0; i < entriesIdArray.length; i++) {
+                        entriesIdArray[i] = entriesId.get(i);
                     }
 
-                    FetcherService.addEntriesToMobilize(entriesId);
+                    FetcherService.addEntriesToMobilize(entriesIdArray);
                 }
             }
-        } catch (Exception ignored) {
+        } catch (Exception e) {
+            entriesSaved = false;
         }
 
         ContentValues values = new ContentValues();
+        String feedTitle = parser.getFeedTitle();
         if (feedName == null && feedTitle != null) {
             values.put(FeedColumns.NAME, feedTitle.trim());
         }
         values.putNull(FeedColumns.ERROR);
+        values.put(FeedColumns.ERROR_COUNT, 0);
         values.put(FeedColumns.LAST_UPDATE, System.currentTimeMillis() - 3000); // by precaution to not miss some feeds
-        values.put(FeedData.FeedColumns.REAL_LAST_UPDATE, newRealLastUpdate);
-        if (cr.update(FeedColumns.CONTENT_URI(id), values, null, null) > 0) {
-            FeedDataContentProvider.notifyGroupFromFeedId(id);
+        if (entriesSaved) { // else the next refresh gets the whole feed again, to retry the entries
+            values.put(FeedData.FeedColumns.REAL_LAST_UPDATE, parser.getRealLastUpdate());
+            values.put(FeedColumns.HTTP_ETAG, httpEtag);
+            values.put(FeedColumns.HTTP_LAST_MODIFIED, httpLastModified);
         }
-
-        super.endDocument();
-    }
-
-    private class FeedFilters {
-        private final ArrayList<Pair<String, Pair<Boolean, Boolean>>> mFilters = new ArrayList<Pair<String, Pair<Boolean, Boolean>>>();
-
-        public FeedFilters(String feedId) {
-            ContentResolver cr = MainApplication.getContext().getContentResolver();
-            Cursor c = cr.query(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(feedId), new String[]{FilterColumns.FILTER_TEXT, FilterColumns.IS_REGEX,
-                    FilterColumns.IS_APPLIED_TO_TITLE}, null, null, null);
-            while (c.moveToNext()) {
-                String filterText = c.getString(0);
-                boolean isRegex = c.getInt(1) == 1;
-                boolean isAppliedToTitle = c.getInt(2) == 1;
-
-                mFilters.add(new Pair<String, Pair<Boolean, Boolean>>(filterText, new Pair<Boolean, Boolean>(isRegex, isAppliedToTitle)));
-            }
-            c.close();
+        if (parser.hasRefreshHints()) {
+            values.put(FeedColumns.PUBLISHER_TTL, parser.getPublisherTtl());
+            values.put(FeedColumns.SKIP_HOURS, parser.getSkipHours());
+            values.put(FeedColumns.SKIP_DAYS, parser.getSkipDays());
         }
-
-        public boolean isEntryFiltered(String title, String content) {
-            boolean isFiltered = false;
-
-            for (Pair<String, Pair<Boolean, Boolean>> filter : mFilters) {
-                String filterText = filter.first;
-                boolean isRegex = filter.second.first;
-                boolean isAppliedToTitle = filter.second.second;
-
-                if (isRegex) {
-                    Pattern p = Pattern.compile(filterText);
-                    if (isAppliedToTitle) {
-                        Matcher m = p.matcher(title);
-                        isFiltered = m.find();
-                    } else if (content != null) {
-                        Matcher m = p.matcher(content);
-                        isFiltered = m.find();
-                    }
-                } else if ((isAppliedToTitle && title.contains(filterText)) || (!isAppliedToTitle && content != null && content.contains(filterText))) {
-                    isFiltered = true;
-                }
-            }
-
-            return isFiltered;
+        if (cr.update(FeedColumns.CONTENT_URI(id), values, null, null) > 0) {
+            FeedDataContentProvider.notifyGroupFromFeedId(id);
         }
     }
 }
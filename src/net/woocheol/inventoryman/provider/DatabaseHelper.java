@@ -46,14 +46,21 @@ package net.woocheol.inventoryman.provider;
 
 import java.io.File;
 
+import net.woocheol.inventoryman.Constants;
 import net.woocheol.inventoryman.MainApplication;
 import net.woocheol.inventoryman.R;
+import net.woocheol.inventoryman.parser.FeedParser;
 import net.woocheol.inventoryman.parser.OPML;
+import net.woocheol.inventoryman.provider.FeedData.CounterColumns;
 import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
 import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
 import net.woocheol.inventoryman.provider.FeedData.FilterColumns;
 import net.woocheol.inventoryman.provider.FeedData.TaskColumns;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Environment;
@@ -62,11 +69,30 @@ import android.os.Handler;
 class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "FeedEx.db";
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 12;
 
     private static final String ALTER_TABLE = "ALTER TABLE ";
     private static final String ADD = " ADD ";
 
+    private static final String CREATE_INDEX = "CREATE INDEX ";
+    private static final String ON = " ON ";
+
+    private static final String ENTRIES_UID_INDEX = "entries_feedid_uid";
+    private static final String ENTRIES_FEED_DATE_INDEX = "entries_feedid_date";
+    private static final String ENTRIES_DATE_INDEX = "entries_date";
+    private static final String ENTRIES_UNREAD_INDEX = "entries_unread";
+    private static final String ENTRIES_FAVORITE_INDEX = "entries_favorite";
+    private static final String TASKS_ENTRY_INDEX = "tasks_entryid_imgurl";
+    private static final String TASKS_IMG_URL_INDEX = "tasks_imgurl";
+    private static final String FILTERS_FEED_INDEX = "filters_feedid";
+    private static final String FEEDS_GROUP_INDEX = "feeds_groupid";
+
+    // 1 if the entry is unread/favorite, 0 otherwise
+    private static final String IS_UNREAD = "(IFNULL(%1$s." + EntryColumns.IS_READ + ", 0) = 0)";
+    private static final String IS_FAVORITE = "(IFNULL(%1$s." + EntryColumns.IS_FAVORITE + ", 0) = 1)";
+
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
     private final Handler mHandler;
 
     public DatabaseHelper(Handler handler, Context context) {
@@ -80,6 +106,10 @@ class DatabaseHelper extends SQLiteOpenHelper {
         database.execSQL(createTable(FilterColumns.TABLE_NAME, FilterColumns.COLUMNS));
         database.execSQL(createTable(EntryColumns.TABLE_NAME, EntryColumns.COLUMNS));
         database.execSQL(createTable(TaskColumns.TABLE_NAME, TaskColumns.COLUMNS));
+        createEntryUidIndex(database);
+        createIndexes(database);
+        database.execSQL(createTable(CounterColumns.TABLE_NAME, CounterColumns.COLUMNS));
+        createCounterTriggers(database);
 
         // Check if we need to import the backup
         File backupFile = new File(OPML.BACKUP_OPML);
@@ -113,6 +143,25 @@ class DatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Gives at most maxPages free pages back to the file system. A database not yet in the incremental mode must be vacuumed once to switch
+     * it, which can not be done within the transaction of onUpgrade(): it is only done when allowVacuum is set, nothing is freed until then.
+     */
+    public void compact(int maxPages, boolean allowVacuum) {
+        SQLiteDatabase database = getWritableDatabase();
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            if (!allowVacuum) {
+                return;
+            }
+            database.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            database.execSQL("VACUUM");
+        }
+
+        Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ')', null);
+        cursor.getCount(); // the pages are freed while the statement is stepped through
+        cursor.close();
+    }
+
     private String createTable(String tableName, String[][] columns) {
         if (tableName == null || columns == null || columns.length == 0) {
             throw new IllegalArgumentException("Invalid parameters for creating table " + tableName);
@@ -151,6 +200,125 @@ class DatabaseHelper extends SQLiteOpenHelper {
             } catch (Exception ignored) {
             }
         }
+        if (oldVersion < 5) {
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.HTTP_ETAG + ' ' + FeedData.TYPE_TEXT);
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.HTTP_LAST_MODIFIED + ' ' + FeedData.TYPE_TEXT);
+        }
+        if (oldVersion < 6) {
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.NEXT_REFRESH + ' ' + FeedData.TYPE_DATE_TIME);
+        }
+        if (oldVersion < 7) {
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.PUBLISHER_TTL + ' ' + FeedData.TYPE_INT);
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.SKIP_HOURS + ' ' + FeedData.TYPE_INT);
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.SKIP_DAYS + ' ' + FeedData.TYPE_INT);
+        }
+        if (oldVersion < 8) {
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.ERROR_COUNT + ' ' + FeedData.TYPE_INT);
+        }
+        if (oldVersion < 9) {
+            executeCatchedSQL(database, ALTER_TABLE + EntryColumns.TABLE_NAME + ADD + EntryColumns.UID + ' ' + FeedData.TYPE_TEXT);
+            fillEntryUids(database);
+            createEntryUidIndex(database);
+        }
+        if (oldVersion < 10) {
+            createIndexes(database);
+        }
+        if (oldVersion < 11) {
+            executeCatchedSQL(database, createTable(CounterColumns.TABLE_NAME, CounterColumns.COLUMNS));
+            executeCatchedSQL(database, "INSERT INTO " + CounterColumns.TABLE_NAME + " SELECT " + EntryColumns.FEED_ID + ", SUM("
+                    + String.format(IS_UNREAD, EntryColumns.TABLE_NAME) + "), SUM(" + String.format(IS_FAVORITE, EntryColumns.TABLE_NAME) + ") FROM "
+                    + EntryColumns.TABLE_NAME + " GROUP BY " + EntryColumns.FEED_ID);
+            createCounterTriggers(database);
+        }
+        if (oldVersion < 12) {
+            executeCatchedSQL(database, ALTER_TABLE + EntryColumns.TABLE_NAME + ADD + EntryColumns.CONTENT_HASH + ' ' + FeedData.TYPE_INT);
+        }
+    }
+
+    private void fillEntryUids(SQLiteDatabase database) {
+        Cursor cursor = database.query(EntryColumns.TABLE_NAME, new String[]{EntryColumns._ID, EntryColumns.LINK, EntryColumns.ENCLOSURE,
+                EntryColumns.GUID}, null, null, null, null, null);
+        ContentValues values = new ContentValues();
+        while (cursor.moveToNext()) {
+            String link = cursor.getString(1);
+            String guid = cursor.getString(3);
+
+            // Same rule as the parser: without link nor guid, an entry can not be recognized
+            if ((link != null && link.length() > 0) || guid != null) {
+                values.put(EntryColumns.UID, FeedParser.getEntryUid(link, cursor.getString(2), guid));
+                database.update(EntryColumns.TABLE_NAME, values, EntryColumns._ID + '=' + cursor.getLong(0), null);
+            }
+        }
+        cursor.close();
+    }
+
+    private void createEntryUidIndex(SQLiteDatabase database) {
+        try {
+            database.execSQL("CREATE UNIQUE INDEX " + ENTRIES_UID_INDEX + " ON " + EntryColumns.TABLE_NAME + " (" + EntryColumns.FEED_ID + ", "
+                    + EntryColumns.UID + ')');
+        } catch (SQLException e) {
+            // Some duplicates were already stored, the lookups still need the index
+            executeCatchedSQL(database, "CREATE INDEX " + ENTRIES_UID_INDEX + " ON " + EntryColumns.TABLE_NAME + " (" + EntryColumns.FEED_ID
+                    + ", " + EntryColumns.UID + ')');
+        }
+    }
+
+    private void createIndexes(SQLiteDatabase database) {
+        // Entries list of a feed and retention cleanup
+        executeCatchedSQL(database, createIndex(ENTRIES_FEED_DATE_INDEX, EntryColumns.TABLE_NAME, EntryColumns.FEED_ID + ", " + EntryColumns.DATE
+                + Constants.DB_DESC));
+        // Entries list of all the feeds
+        executeCatchedSQL(database, createIndex(ENTRIES_DATE_INDEX, EntryColumns.TABLE_NAME, EntryColumns.DATE + Constants.DB_DESC));
+        // Unread counts and unread lists, only a small part of the entries
+        createPartialIndex(database, ENTRIES_UNREAD_INDEX, EntryColumns.TABLE_NAME, EntryColumns.FEED_ID + ", " + EntryColumns.DATE
+                + Constants.DB_DESC, EntryColumns.WHERE_UNREAD, EntryColumns.FEED_ID + ", " + EntryColumns.IS_READ);
+        createPartialIndex(database, ENTRIES_FAVORITE_INDEX, EntryColumns.TABLE_NAME, EntryColumns.DATE + Constants.DB_DESC,
+                EntryColumns.IS_FAVORITE + Constants.DB_IS_TRUE, EntryColumns.IS_FAVORITE);
+
+        executeCatchedSQL(database, createIndex(TASKS_ENTRY_INDEX, TaskColumns.TABLE_NAME, TaskColumns.ENTRY_ID + ", " + TaskColumns.IMG_URL_TO_DL));
+        executeCatchedSQL(database, createIndex(TASKS_IMG_URL_INDEX, TaskColumns.TABLE_NAME, TaskColumns.IMG_URL_TO_DL));
+        executeCatchedSQL(database, createIndex(FILTERS_FEED_INDEX, FilterColumns.TABLE_NAME, FilterColumns.FEED_ID));
+        executeCatchedSQL(database, createIndex(FEEDS_GROUP_INDEX, FeedColumns.TABLE_NAME, FeedColumns.GROUP_ID));
+
+        executeCatchedSQL(database, "ANALYZE");
+    }
+
+    /**
+     * Keeps the counters table up to date whatever the way the entries are changed
+     */
+    private void createCounterTriggers(SQLiteDatabase database) {
+        String addRow = "INSERT OR IGNORE INTO " + CounterColumns.TABLE_NAME + " VALUES (NEW." + EntryColumns.FEED_ID + ", 0, 0); ";
+        String add = "UPDATE " + CounterColumns.TABLE_NAME + " SET " + CounterColumns.UNREAD + " = " + CounterColumns.UNREAD + " + "
+                + String.format(IS_UNREAD, "NEW") + ", " + CounterColumns.FAVORITES + " = " + CounterColumns.FAVORITES + " + "
+                + String.format(IS_FAVORITE, "NEW") + " WHERE " + CounterColumns.FEED_ID + " = NEW." + EntryColumns.FEED_ID + "; ";
+        String remove = "UPDATE " + CounterColumns.TABLE_NAME + " SET " + CounterColumns.UNREAD + " = " + CounterColumns.UNREAD + " - "
+                + String.format(IS_UNREAD, "OLD") + ", " + CounterColumns.FAVORITES + " = " + CounterColumns.FAVORITES + " - "
+                + String.format(IS_FAVORITE, "OLD") + " WHERE " + CounterColumns.FEED_ID + " = OLD." + EntryColumns.FEED_ID + "; ";
+
+        executeCatchedSQL(database, "CREATE TRIGGER entries_counters_insert AFTER INSERT ON " + EntryColumns.TABLE_NAME + " BEGIN " + addRow + add
+                + "END");
+        executeCatchedSQL(database, "CREATE TRIGGER entries_counters_delete AFTER DELETE ON " + EntryColumns.TABLE_NAME + " BEGIN " + remove
+                + "END");
+        // Only fired when one of these columns is set, not by the content updates of the refreshes
+        executeCatchedSQL(database, "CREATE TRIGGER entries_counters_update AFTER UPDATE OF " + EntryColumns.IS_READ + ", "
+                + EntryColumns.IS_FAVORITE + ", " + EntryColumns.FEED_ID + " ON " + EntryColumns.TABLE_NAME + " BEGIN " + remove + addRow + add
+                + "END");
+        executeCatchedSQL(database, "CREATE TRIGGER feeds_counters_delete AFTER DELETE ON " + FeedColumns.TABLE_NAME + " BEGIN DELETE FROM "
+                + CounterColumns.TABLE_NAME + " WHERE " + CounterColumns.FEED_ID + " = OLD." + FeedColumns._ID + "; END");
+    }
+
+    private String createIndex(String indexName, String tableName, String columns) {
+        return CREATE_INDEX + indexName + ON + tableName + " (" + columns + ')';
+    }
+
+    private void createPartialIndex(SQLiteDatabase database, String indexName, String tableName, String columns, String where,
+                                    String fallbackColumns) {
+        try {
+            database.execSQL(createIndex(indexName, tableName, columns) + " WHERE " + where);
+        } catch (SQLException e) {
+            // Partial indexes need SQLite 3.8, older devices get a full one
+            executeCatchedSQL(database, createIndex(indexName, tableName, fallbackColumns));
+        }
     }
 
     private void executeCatchedSQL(SQLiteDatabase database, String query) {
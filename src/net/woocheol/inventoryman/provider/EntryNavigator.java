@@ -0,0 +1,99 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.provider;
+
+import net.woocheol.inventoryman.Constants;
+import net.woocheol.inventoryman.MainApplication;
+import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+/**
+ * Finds the entries around a given one, in the order of the entries lists (date DESC, _id DESC). Each lookup is one indexed query for a
+ * single row, whatever the size of the list, and the neighbors already found are remembered.
+ */
+public class EntryNavigator {
+
+    private static final int CACHE_SIZE = 32;
+    private static final long UNKNOWN = -2;
+    private static final String[] PROJECTION_ID = new String[]{EntryColumns._ID};
+    private static final String NEWER_ORDER = EntryColumns.DATE + ", " + EntryColumns._ID + " LIMIT 1";
+    private static final String OLDER_ORDER = EntryColumns.DATE + Constants.DB_DESC + ", " + EntryColumns._ID + Constants.DB_DESC + " LIMIT 1";
+
+    private final Uri mParentUri;
+    private final String mSelection;
+    // entry id -> {previous id, next id}. Also remembers the way back, even if the entries just read are now out of the selection.
+    private final LruCache<Long, long[]> mNeighbors = new LruCache<Long, long[]>(CACHE_SIZE);
+
+    public EntryNavigator(Uri parentUri, String selection) {
+        mParentUri = parentUri;
+        mSelection = selection;
+    }
+
+    /**
+     * Returns the ids of the previous (newer) and next (older) entries, -1 when there is none
+     */
+    public long[] getNeighbors(long entryId, long entryDate) {
+        long[] neighbors = getCachedNeighbors(entryId);
+
+        if (neighbors[0] == UNKNOWN) {
+            // The range on the date alone lets the index find the row, the ids only break the ties
+            neighbors[0] = findNeighbor(EntryColumns.DATE + ">=" + entryDate + Constants.DB_AND + '(' + EntryColumns.DATE + '>' + entryDate
+                    + Constants.DB_OR + EntryColumns._ID + '>' + entryId + ')', NEWER_ORDER);
+            if (neighbors[0] != -1) {
+                getCachedNeighbors(neighbors[0])[1] = entryId;
+            }
+        }
+        if (neighbors[1] == UNKNOWN) {
+            neighbors[1] = findNeighbor(EntryColumns.DATE + "<=" + entryDate + Constants.DB_AND + '(' + EntryColumns.DATE + '<' + entryDate
+                    + Constants.DB_OR + EntryColumns._ID + '<' + entryId + ')', OLDER_ORDER);
+            if (neighbors[1] != -1) {
+                getCachedNeighbors(neighbors[1])[0] = entryId;
+            }
+        }
+
+        return new long[]{neighbors[0], neighbors[1]};
+    }
+
+    private long[] getCachedNeighbors(long entryId) {
+        long[] neighbors = mNeighbors.get(entryId);
+        if (neighbors == null) {
+            neighbors = new long[]{UNKNOWN, UNKNOWN};
+            mNeighbors.put(entryId, neighbors);
+        }
+        return neighbors;
+    }
+
+    private long findNeighbor(String keyset, String order) {
+        String selection = '(' + keyset + ')';
+        if (mSelection != null) {
+            selection += Constants.DB_AND + mSelection;
+        }
+
+        long id = -1;
+        Cursor cursor = MainApplication.getContext().getContentResolver().query(mParentUri, PROJECTION_ID, selection, null, order);
+        if (cursor.moveToFirst()) {
+            id = cursor.getLong(0);
+        }
+        cursor.close();
+        return id;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.provider;
+
+import java.util.ArrayList;
+
+import net.woocheol.inventoryman.MainApplication;
+import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
+import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
+import net.woocheol.inventoryman.utils.LongSet;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Write-behind queue for the read & favorite states changed from the lists. The changes are kept a short while, so a fast triage is written
+ * in one transaction with one round of notifications, from a single background thread.
+ */
+public class EntryStateWriter {
+
+    private static final String TAG = "EntryStateWriter";
+    private static final long FLUSH_DELAY = 500;
+
+    private static EntryStateWriter sInstance;
+
+    private final Handler mHandler;
+    private boolean mFlushScheduled = false;
+
+    private LongSet mRead = new LongSet();
+    private LongSet mUnread = new LongSet();
+    private LongSet mFavorite = new LongSet();
+    private LongSet mUnfavorite = new LongSet();
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized EntryStateWriter getInstance() {
+        if (sInstance == null) {
+            sInstance = new EntryStateWriter();
+        }
+        return sInstance;
+    }
+
+    private EntryStateWriter() {
+        HandlerThread thread = new HandlerThread(EntryStateWriter.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public synchronized void markAsRead(long entryId) {
+        mUnread.remove(entryId);
+        mRead.add(entryId);
+        scheduleFlush();
+    }
+
+    public synchronized void markAsUnread(long entryId) {
+        mRead.remove(entryId);
+        mUnread.add(entryId);
+        scheduleFlush();
+    }
+
+    public synchronized void setFavorite(long entryId, boolean favorite) {
+        if (favorite) {
+            mUnfavorite.remove(entryId);
+            mFavorite.add(entryId);
+        } else {
+            mFavorite.remove(entryId);
+            mUnfavorite.add(entryId);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Adds the changes not written yet to the given sets, so a list reloaded meanwhile still shows them
+     */
+    public synchronized void getPendingChanges(LongSet read, LongSet unread, LongSet favorite, LongSet unfavorite) {
+        read.addAll(mRead);
+        unread.addAll(mUnread);
+        favorite.addAll(mFavorite);
+        unfavorite.addAll(mUnfavorite);
+    }
+
+    /**
+     * Writes the pending changes, then runs the task on the same background thread: a bulk update run this way always comes after the
+     * changes made before it, instead of being overwritten by them.
+     */
+    public void runAfterPendingChanges(final Runnable task) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                task.run();
+            }
+        });
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushTask, FLUSH_DELAY);
+        }
+    }
+
+    private void flush() {
+        LongSet read, unread, favorite, unfavorite;
+        synchronized (this) {
+            mFlushScheduled = false;
+            read = mRead;
+            unread = mUnread;
+            favorite = mFavorite;
+            unfavorite = mUnfavorite;
+            mRead = new LongSet();
+            mUnread = new LongSet();
+            mFavorite = new LongSet();
+            mUnfavorite = new LongSet();
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        addUpdate(operations, read, FeedData.getReadContentValues());
+        addUpdate(operations, unread, FeedData.getUnreadContentValues());
+        ContentValues values = new ContentValues();
+        values.put(EntryColumns.IS_FAVORITE, 1);
+        addUpdate(operations, favorite, values);
+        values = new ContentValues();
+        values.put(EntryColumns.IS_FAVORITE, 0);
+        addUpdate(operations, unfavorite, values);
+
+        if (!operations.isEmpty()) {
+            ContentResolver cr = MainApplication.getContext().getContentResolver();
+            try {
+                cr.applyBatch(FeedData.AUTHORITY, operations);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not write the read and favorite states", e);
+                // Kept to be written with the next changes, the lists still show them meanwhile
+                restore(read, unread, favorite, unfavorite);
+                return;
+            }
+
+            // The entries may belong to any list, one notification for each kind of list
+            cr.notifyChange(EntryColumns.CONTENT_URI, null);
+            cr.notifyChange(FeedColumns.CONTENT_URI, null);
+            cr.notifyChange(FeedColumns.GROUPS_CONTENT_URI, null);
+            cr.notifyChange(FeedColumns.GROUPED_FEEDS_CONTENT_URI, null);
+            cr.notifyChange(EntryColumns.FAVORITES_CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * Puts back the changes which could not be written, unless they were changed again meanwhile
+     */
+    private synchronized void restore(LongSet read, LongSet unread, LongSet favorite, LongSet unfavorite) {
+        restore(read, mRead, mUnread);
+        restore(unread, mUnread, mRead);
+        restore(favorite, mFavorite, mUnfavorite);
+        restore(unfavorite, mUnfavorite, mFavorite);
+    }
+
+    private static void restore(LongSet entryIds, LongSet pending, LongSet pendingOpposite) {
+        for (long entryId : entryIds.toArray()) {
+            if (!pendingOpposite.contains(entryId)) {
+                pending.add(entryId);
+            }
+        }
+    }
+
+    private static void addUpdate(ArrayList<ContentProviderOperation> operations, LongSet entryIds, ContentValues values) {
+        if (entryIds.isEmpty()) {
+            return;
+        }
+
+        StringBuilder where = new StringBuilder(EntryColumns._ID).append(" IN (");
+        long[] ids = entryIds.toArray();
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                where.append(',');
+            }
+            where.append(ids[i]);
+        }
+        where.append(')');
+
+        operations.add(ContentProviderOperation.newUpdate(EntryColumns.CONTENT_URI).withValues(values).withSelection(where.toString(), null).build());
+    }
+}
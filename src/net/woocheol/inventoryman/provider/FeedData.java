@@ -54,6 +54,28 @@ public class FeedData {
     public static final String AUTHORITY = "net.fred.feedex.provider.FeedData";
     public static final String CONTENT_AUTHORITY = CONTENT + AUTHORITY;
 
+    /**
+     * Optional maximum number of rows of a query, as a query parameter of its uri
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter of the uri returned by an entry insert when an entry with the same uid was already saved, nothing was inserted
+     */
+    public static final String QUERY_PARAMETER_EXISTING = "existing";
+
+    /**
+     * Provider call giving the free pages back to the file system, its argument is the maximum number of pages. Only allowed from the
+     * application itself, an invalid argument does nothing.
+     */
+    public static final String METHOD_COMPACT = "compact";
+
+    /**
+     * Boolean extra of METHOD_COMPACT allowing the one-time VACUUM switching an old database to the incremental mode. It rewrites the whole
+     * file while holding the write lock, so it is only allowed when the device is charging.
+     */
+    public static final String EXTRA_ALLOW_VACUUM = "allow_vacuum";
+
     static final String TYPE_PRIMARY_KEY = "INTEGER PRIMARY KEY AUTOINCREMENT";
 
     static final String TYPE_EXTERNAL_ID = "INTEGER(7)";
@@ -64,6 +86,7 @@ public class FeedData {
     static final String TYPE_INT = "INT";
     static final String TYPE_BOOLEAN = "INTEGER(1)";
 
+
     public static class FeedColumns implements BaseColumns {
         public static final String TABLE_NAME = "feeds";
 
@@ -79,10 +102,19 @@ public class FeedData {
         public static final String ERROR = "error";
         public static final String PRIORITY = "priority";
         public static final String FETCH_MODE = "fetchmode";
+        public static final String HTTP_ETAG = "httpetag";
+        public static final String HTTP_LAST_MODIFIED = "httplastmodified";
+        public static final String NEXT_REFRESH = "nextrefresh";
+        public static final String PUBLISHER_TTL = "publisherttl";
+        public static final String SKIP_HOURS = "skiphours";
+        public static final String SKIP_DAYS = "skipdays";
+        public static final String ERROR_COUNT = "errorcount";
 
         public static final String[][] COLUMNS = new String[][]{{_ID, TYPE_PRIMARY_KEY}, {URL, TYPE_TEXT_UNIQUE}, {NAME, TYPE_TEXT}, {IS_GROUP, TYPE_BOOLEAN},
                 {GROUP_ID, TYPE_EXTERNAL_ID}, {LAST_UPDATE, TYPE_DATE_TIME}, {REAL_LAST_UPDATE, TYPE_DATE_TIME}, {RETRIEVE_FULLTEXT, TYPE_BOOLEAN},
-                {ICON, "BLOB"}, {ERROR, TYPE_TEXT}, {PRIORITY, TYPE_INT}, {FETCH_MODE, TYPE_INT}, {SCORE, TYPE_FLOAT}};
+                {ICON, "BLOB"}, {ERROR, TYPE_TEXT}, {PRIORITY, TYPE_INT}, {FETCH_MODE, TYPE_INT}, {SCORE, TYPE_FLOAT},
+                {HTTP_ETAG, TYPE_TEXT}, {HTTP_LAST_MODIFIED, TYPE_TEXT}, {NEXT_REFRESH, TYPE_DATE_TIME},
+                {PUBLISHER_TTL, TYPE_INT}, {SKIP_HOURS, TYPE_INT}, {SKIP_DAYS, TYPE_INT}, {ERROR_COUNT, TYPE_INT}};
 
         // content://net.fred.feedex.provider.FeedData/feeds
         public static final Uri CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/feeds");
@@ -157,10 +189,13 @@ public class FeedData {
         public static final String ENCLOSURE = "enclosure";
         public static final String GUID = "guid";
         public static final String AUTHOR = "author";
+        public static final String UID = "uid";
+        public static final String CONTENT_HASH = "contenthash";
 
         public static final String[][] COLUMNS = new String[][]{{_ID, TYPE_PRIMARY_KEY}, {FEED_ID, TYPE_EXTERNAL_ID}, {TITLE, TYPE_TEXT},
                 {ABSTRACT, TYPE_TEXT}, {MOBILIZED_HTML, TYPE_TEXT}, {DATE, TYPE_DATE_TIME}, {IS_READ, TYPE_BOOLEAN}, {LINK, TYPE_TEXT},
-                {IS_FAVORITE, TYPE_BOOLEAN}, {ENCLOSURE, TYPE_TEXT}, {GUID, TYPE_TEXT}, {AUTHOR, TYPE_TEXT}};
+                {IS_FAVORITE, TYPE_BOOLEAN}, {ENCLOSURE, TYPE_TEXT}, {GUID, TYPE_TEXT}, {AUTHOR, TYPE_TEXT}, {UID, TYPE_TEXT},
+                {CONTENT_HASH, TYPE_INT}};
 
         public static final Uri CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/entries");
         public static final Uri FAVORITES_CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/favorites");
@@ -195,11 +230,39 @@ public class FeedData {
 
         public static final String[] PROJECTION_ID = new String[]{EntryColumns._ID};
 
+        /**
+         * Only what the entries lists display, the contents stay out of the cursor window
+         */
+        public static final String[] PROJECTION_LIST = new String[]{EntryColumns._ID, EntryColumns.FEED_ID, EntryColumns.TITLE, EntryColumns.DATE,
+                EntryColumns.IS_READ, EntryColumns.IS_FAVORITE, EntryColumns.LINK};
+        public static final String[] PROJECTION_LIST_WITH_FEED_INFO = new String[]{EntryColumns._ID, EntryColumns.FEED_ID, EntryColumns.TITLE,
+                EntryColumns.DATE, EntryColumns.IS_READ, EntryColumns.IS_FAVORITE, EntryColumns.LINK, FeedColumns.NAME};
+
         public static final String WHERE_UNREAD = "(" + EntryColumns.IS_READ + Constants.DB_IS_NULL + Constants.DB_OR + EntryColumns.IS_READ + Constants.DB_IS_FALSE + ')';
 
         public static final String WHERE_NOT_FAVORITE = "(" + EntryColumns.IS_FAVORITE + Constants.DB_IS_NULL + Constants.DB_OR + EntryColumns.IS_FAVORITE + Constants.DB_IS_FALSE + ')';
     }
 
+    /**
+     * Unread and favorite entries of each feed, maintained by triggers on the entries table
+     */
+    public static class CounterColumns {
+        public static final String TABLE_NAME = "counters";
+
+        public static final String FEED_ID = "feedid";
+        public static final String UNREAD = "unread";
+        public static final String FAVORITES = "favorites";
+
+        public static final String[][] COLUMNS = new String[][]{{FEED_ID, TYPE_EXTERNAL_ID + " PRIMARY KEY"}, {UNREAD, TYPE_INT}, {FAVORITES, TYPE_INT}};
+
+        public static final Uri CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/counters");
+
+        public static final String FEED_UNREAD = "(SELECT " + UNREAD + " FROM " + TABLE_NAME + " WHERE " + FEED_ID + '=' + FeedColumns.TABLE_NAME
+                + '.' + FeedColumns._ID + ')';
+        public static final String ALL_UNREAD = "(SELECT IFNULL(SUM(" + UNREAD + "), 0) FROM " + TABLE_NAME + ')';
+        public static final String ALL_FAVORITES = "(SELECT IFNULL(SUM(" + FAVORITES + "), 0) FROM " + TABLE_NAME + ')';
+    }
+
     public static class TaskColumns implements BaseColumns {
         public static final String TABLE_NAME = "tasks";
 
@@ -44,25 +44,37 @@
 
 package net.woocheol.inventoryman.provider;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.Process;
 import android.text.TextUtils;
 import net.woocheol.inventoryman.Constants;
 import net.woocheol.inventoryman.MainApplication;
+import net.woocheol.inventoryman.parser.FeedFiltersCache;
+import net.woocheol.inventoryman.provider.FeedData.CounterColumns;
 import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
 import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
 import net.woocheol.inventoryman.provider.FeedData.FilterColumns;
 import net.woocheol.inventoryman.provider.FeedData.TaskColumns;
 import net.woocheol.inventoryman.utils.NetworkUtils;
+import net.woocheol.inventoryman.utils.UiUtils;
 
 public class FeedDataContentProvider extends ContentProvider {
 
@@ -85,6 +97,7 @@ public class FeedDataContentProvider extends ContentProvider {
     public static final int URI_TASKS = 17;
     public static final int URI_TASK = 18;
     public static final int URI_BARCODE = 19;
+    public static final int URI_COUNTERS = 20;
 
     public static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -109,15 +122,26 @@ public class FeedDataContentProvider extends ContentProvider {
         URI_MATCHER.addURI(FeedData.AUTHORITY, "tasks/#", URI_TASK);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "barcode", URI_BARCODE);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "barcode/#", URI_BARCODE);
+        URI_MATCHER.addURI(FeedData.AUTHORITY, "counters", URI_COUNTERS);
     }
 
     private static final String FEEDS_TABLE_WITH_GROUP_PRIORITY = FeedColumns.TABLE_NAME + " LEFT JOIN (SELECT " + FeedColumns._ID + " AS joined_feed_id, " + FeedColumns.PRIORITY +
             " AS group_priority FROM " + FeedColumns.TABLE_NAME + ") AS f ON (" + FeedColumns.TABLE_NAME + '.' + FeedColumns.GROUP_ID + " = f.joined_feed_id)";
     private static final String ENTRIES_TABLE_WITH_FEED_INFO = EntryColumns.TABLE_NAME + " JOIN (SELECT " + FeedColumns._ID + " AS joined_feed_id, " + FeedColumns.NAME + ", " +
-            FeedColumns.ICON + ", " + FeedColumns.GROUP_ID + " FROM " + FeedColumns.TABLE_NAME + ") AS f ON (" + EntryColumns.TABLE_NAME + '.' + EntryColumns.FEED_ID + " = f.joined_feed_id)";
+            FeedColumns.GROUP_ID + " FROM " + FeedColumns.TABLE_NAME + ") AS f ON (" + EntryColumns.TABLE_NAME + '.' + EntryColumns.FEED_ID + " = f.joined_feed_id)";
 
     private DatabaseHelper mDatabaseHelper;
 
+    /**
+     * Notifications and OPML export delayed until the end of the batch running in the current thread, null outside of a batch
+     */
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<PendingChanges>();
+
+    private static class PendingChanges {
+        private final LinkedHashSet<Uri> uris = new LinkedHashSet<Uri>();
+        private boolean exportToOPML = false;
+    }
+
     @Override
     public String getType(Uri uri) {
         int option = URI_MATCHER.match(uri);
@@ -150,6 +174,8 @@ public class FeedDataContentProvider extends ContentProvider {
                 return "vnd.android.cursor.item/vnd.feedex.task";
             case URI_BARCODE:
                 return "vnd.android.cursor.item/vnd.feedex.feed";
+            case URI_COUNTERS:
+                return "vnd.android.cursor.dir/vnd.feedex.counter";
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
@@ -162,6 +188,25 @@ public class FeedDataContentProvider extends ContentProvider {
         return true;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // The provider is exported: the maintenance methods are only for the application itself
+        if (Binder.getCallingUid() != Process.myUid()) {
+            throw new SecurityException("Method " + method + " not allowed");
+        }
+
+        if (FeedData.METHOD_COMPACT.equals(method) && arg != null) {
+            try {
+                int maxPages = Integer.parseInt(arg);
+                if (maxPages > 0) {
+                    mDatabaseHelper.compact(maxPages, extras != null && extras.getBoolean(FeedData.EXTRA_ALLOW_VACUUM));
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return null;
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
@@ -254,11 +299,16 @@ public class FeedDataContentProvider extends ContentProvider {
                 queryBuilder.appendWhere(new StringBuilder(FeedColumns.URL).append('=').append(uri.getPathSegments().get(1)));
                 break;
             }
+            case URI_COUNTERS: {
+                queryBuilder.setTables(CounterColumns.TABLE_NAME);
+                break;
+            }
         }
 
         SQLiteDatabase database = mDatabaseHelper.getReadableDatabase();
 
-        Cursor cursor = queryBuilder.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+        Cursor cursor = queryBuilder.query(database, projection, selection, selectionArgs, null, null, sortOrder,
+                uri.getQueryParameter(FeedData.QUERY_PARAMETER_LIMIT));
 
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
@@ -293,22 +343,38 @@ public class FeedDataContentProvider extends ContentProvider {
                 cursor.close();
 
                 newId = database.insert(FeedColumns.TABLE_NAME, null, values);
-                mDatabaseHelper.exportToOPML();
+                exportToOPML();
 
                 break;
             }
             case URI_FILTERS: {
                 newId = database.insert(FilterColumns.TABLE_NAME, null, values);
+                FeedFiltersCache.invalidateAll();
                 break;
             }
             case URI_FILTERS_FOR_FEED: {
                 values.put(FilterColumns.FEED_ID, uri.getPathSegments().get(1));
                 newId = database.insert(FilterColumns.TABLE_NAME, null, values);
+                FeedFiltersCache.invalidate(uri.getPathSegments().get(1));
                 break;
             }
             case URI_ENTRIES_FOR_FEED: {
                 values.put(EntryColumns.FEED_ID, uri.getPathSegments().get(1));
-                newId = database.insert(EntryColumns.TABLE_NAME, null, values);
+                // An entry with the same uid may have been inserted meanwhile by another refresh, it is simply kept. Its uri is returned, as
+                // a null one would make the whole batch fail.
+                newId = database.insertWithOnConflict(EntryColumns.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                if (newId == -1 && values.containsKey(EntryColumns.UID)) {
+                    Cursor cursor = database.query(EntryColumns.TABLE_NAME, EntryColumns.PROJECTION_ID, EntryColumns.FEED_ID + Constants.DB_ARG
+                            + Constants.DB_AND + EntryColumns.UID + Constants.DB_ARG, new String[]{uri.getPathSegments().get(1),
+                            values.getAsString(EntryColumns.UID)}, null, null, null);
+                    long existingId = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+                    cursor.close();
+
+                    if (existingId != -1) {
+                        return ContentUris.withAppendedId(uri, existingId).buildUpon()
+                                .appendQueryParameter(FeedData.QUERY_PARAMETER_EXISTING, Boolean.TRUE.toString()).build();
+                    }
+                }
                 break;
             }
             case URI_ENTRIES: {
@@ -323,7 +389,7 @@ public class FeedDataContentProvider extends ContentProvider {
                 throw new IllegalArgumentException("Illegal insert");
         }
         if (newId > -1) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
             return ContentUris.withAppendedId(uri, newId);
         } else {
             throw new SQLException("Could not insert row into " + uri);
@@ -347,6 +413,10 @@ public class FeedDataContentProvider extends ContentProvider {
                 long feedId = Long.parseLong(uri.getPathSegments().get(1));
                 where.append(FeedColumns._ID).append('=').append(feedId);
 
+                if (values != null && values.containsKey(FeedColumns.ICON)) {
+                    UiUtils.invalidateFavicon(feedId);
+                }
+
                 if (values != null && values.containsKey(FeedColumns.PRIORITY)) {
                     Cursor priorityCursor = database.query(FeedColumns.TABLE_NAME, new String[]{FeedColumns.PRIORITY, FeedColumns.GROUP_ID},
                             FeedColumns._ID + "=" + feedId, null, null, null, null);
@@ -405,11 +475,13 @@ public class FeedDataContentProvider extends ContentProvider {
             }
             case URI_FILTERS: {
                 table = FilterColumns.TABLE_NAME;
+                FeedFiltersCache.invalidateAll();
                 break;
             }
             case URI_FILTERS_FOR_FEED: {
                 table = FilterColumns.TABLE_NAME;
                 where.append(FilterColumns.FEED_ID).append('=').append(uri.getPathSegments().get(1));
+                FeedFiltersCache.invalidate(uri.getPathSegments().get(1));
                 break;
             }
             case URI_ENTRY_FOR_FEED:
@@ -466,10 +538,10 @@ public class FeedDataContentProvider extends ContentProvider {
 
         if (FeedColumns.TABLE_NAME.equals(table)
                 && (values.containsKey(FeedColumns.NAME) || values.containsKey(FeedColumns.URL) || values.containsKey(FeedColumns.PRIORITY))) {
-            mDatabaseHelper.exportToOPML();
+            exportToOPML();
         }
         if (count > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return count;
@@ -521,6 +593,7 @@ public class FeedDataContentProvider extends ContentProvider {
                 table = FeedColumns.TABLE_NAME;
 
                 final String feedId = uri.getPathSegments().get(1);
+                UiUtils.invalidateFavicon(Long.parseLong(feedId));
 
                 // Remove also the feed entries
                 new Thread() {
@@ -565,11 +638,13 @@ public class FeedDataContentProvider extends ContentProvider {
             }
             case URI_FILTERS: {
                 table = FilterColumns.TABLE_NAME;
+                FeedFiltersCache.invalidateAll();
                 break;
             }
             case URI_FILTERS_FOR_FEED: {
                 table = FilterColumns.TABLE_NAME;
                 where.append(FilterColumns.FEED_ID).append('=').append(uri.getPathSegments().get(1));
+                FeedFiltersCache.invalidate(uri.getPathSegments().get(1));
                 break;
             }
             case URI_ENTRY_FOR_FEED:
@@ -624,14 +699,91 @@ public class FeedDataContentProvider extends ContentProvider {
         int count = database.delete(table, where.toString(), selectionArgs);
 
         if (FeedColumns.TABLE_NAME.equals(table)) {
-            mDatabaseHelper.exportToOPML();
+            exportToOPML();
         }
         if (count > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return count;
     }
 
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        PendingChanges pendingChanges = beginBatch(database);
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            return results;
+        } finally {
+            endBatch(database, pendingChanges);
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        PendingChanges pendingChanges = beginBatch(database);
+        try {
+            int count = 0;
+            for (ContentValues value : values) {
+                if (insert(uri, value) != null) {
+                    count++;
+                }
+            }
+            database.setTransactionSuccessful();
+            return count;
+        } finally {
+            endBatch(database, pendingChanges);
+        }
+    }
+
+    private PendingChanges beginBatch(SQLiteDatabase database) {
+        database.beginTransaction();
+
+        PendingChanges pendingChanges = mPendingChanges.get();
+        if (pendingChanges == null) { // nested batches are merged into the outer one
+            mPendingChanges.set(new PendingChanges());
+        }
+        return pendingChanges;
+    }
+
+    private void endBatch(SQLiteDatabase database, PendingChanges outerPendingChanges) {
+        database.endTransaction();
+
+        if (outerPendingChanges == null) {
+            PendingChanges pendingChanges = mPendingChanges.get();
+            mPendingChanges.remove();
+
+            // Only once all the changes are written, and only once per uri
+            if (pendingChanges.exportToOPML) {
+                mDatabaseHelper.exportToOPML();
+            }
+            ContentResolver cr = getContext().getContentResolver();
+            for (Uri uri : pendingChanges.uris) {
+                cr.notifyChange(uri, null);
+            }
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        PendingChanges pendingChanges = mPendingChanges.get();
+        if (pendingChanges != null) {
+            pendingChanges.uris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private void exportToOPML() {
+        PendingChanges pendingChanges = mPendingChanges.get();
+        if (pendingChanges != null) {
+            pendingChanges.exportToOPML = true;
+        } else {
+            mDatabaseHelper.exportToOPML();
+        }
+    }
+
     private static String getFeedIdFromEntryId(long entryId) {
         ContentResolver cr = MainApplication.getContext().getContentResolver();
         Cursor c = cr.query(EntryColumns.CONTENT_URI(entryId), new String[]{EntryColumns.FEED_ID}, null, null, null);
@@ -41,11 +41,7 @@ public class ConnectionChangeReceiver extends BroadcastReceiver {
             mConnection = true;
 
             if (!PrefUtils.getBoolean(PrefUtils.IS_REFRESHING, false) && PrefUtils.getBoolean(PrefUtils.REFRESH_ENABLED, true)) {
-                int time = 3600000;
-                try {
-                    time = Math.max(60000, Integer.parseInt(PrefUtils.getString(PrefUtils.REFRESH_INTERVAL, RefreshService.SIXTY_MINUTES)));
-                } catch (Exception ignored) {
-                }
+                int time = RefreshService.getRefreshInterval();
 
                 long lastRefresh = PrefUtils.getLong(PrefUtils.LAST_SCHEDULED_REFRESH, 0);
                 if (SystemClock.elapsedRealtime() - lastRefresh > time) {
@@ -0,0 +1,166 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.service;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent pool running the feed fetches. It never runs more than MAX_PER_HOST fetches against the same host, scales the number of
+ * parallel fetches with the network latency and always starts the pending fetches of the fastest hosts first, so a few slow servers only
+ * delay their own feeds. The latency is the time to the first byte of the response, reported by the fetches with reportLatency(), since
+ * the download and parsing time depend on the device rather than on the network.
+ */
+public class FetchScheduler {
+
+    private static final int MIN_CONCURRENCY = 3;
+    private static final int MAX_CONCURRENCY = 8;
+    private static final int MAX_PER_HOST = 2;
+    private static final long LATENCY_PER_THREAD = 250; // one more fetch in parallel for each 250ms of average latency
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static FetchScheduler sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final HashMap<String, HostState> mHosts = new HashMap<String, HostState>();
+    private int mRunningCount = 0;
+    private int mConcurrency = MIN_CONCURRENCY;
+    private long mAverageLatency = -1;
+
+    private static class HostState {
+        private final LinkedList<Runnable> pending = new LinkedList<Runnable>();
+        private int runningCount = 0;
+        private long averageLatency = 0; // unknown hosts go first
+    }
+
+    public static synchronized FetchScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new FetchScheduler();
+        }
+        return sInstance;
+    }
+
+    private FetchScheduler() {
+        mExecutor = new ThreadPoolExecutor(MAX_CONCURRENCY, MAX_CONCURRENCY, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true); // no idle thread between two refreshes
+    }
+
+    public Future<Integer> submit(String url, Callable<Integer> task) {
+        final String host = getHost(url);
+        final FutureTask<Integer> futureTask = new FutureTask<Integer>(task);
+
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    futureTask.run();
+                } finally {
+                    onFetchDone(host);
+                }
+            }
+        };
+
+        synchronized (this) {
+            HostState hostState = mHosts.get(host);
+            if (hostState == null) {
+                hostState = new HostState();
+                mHosts.put(host, hostState);
+            }
+            hostState.pending.add(runnable);
+            dispatch();
+        }
+
+        return futureTask;
+    }
+
+    /**
+     * @param latency the time between the start of the connection and the first byte of the response, in ms
+     */
+    public synchronized void reportLatency(String url, long latency) {
+        // Exponential moving averages, the recent fetches weigh more
+        HostState hostState = mHosts.get(getHost(url));
+        if (hostState != null) {
+            hostState.averageLatency = hostState.averageLatency == 0 ? latency : (hostState.averageLatency * 3 + latency) / 4;
+        }
+        mAverageLatency = mAverageLatency == -1 ? latency : (mAverageLatency * 7 + latency) / 8;
+        mConcurrency = (int) Math.max(MIN_CONCURRENCY, Math.min(MAX_CONCURRENCY, mAverageLatency / LATENCY_PER_THREAD));
+
+        dispatch();
+    }
+
+    private synchronized void onFetchDone(String host) {
+        HostState hostState = mHosts.get(host);
+        hostState.runningCount--;
+        mRunningCount--;
+
+        if (hostState.runningCount == 0 && hostState.pending.isEmpty()) {
+            mHosts.remove(host);
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Starts pending fetches while there are free slots, the fastest hosts first. Must be called with the lock held.
+     */
+    private void dispatch() {
+        while (mRunningCount < mConcurrency) {
+            HostState next = null;
+            for (HostState hostState : mHosts.values()) {
+                if (!hostState.pending.isEmpty() && hostState.runningCount < MAX_PER_HOST
+                        && (next == null || hostState.averageLatency < next.averageLatency)) {
+                    next = hostState;
+                }
+            }
+
+            if (next == null) {
+                return;
+            }
+
+            next.runningCount++;
+            mRunningCount++;
+            mExecutor.execute(next.pending.removeFirst());
+        }
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -44,26 +44,23 @@
 
 package net.woocheol.inventoryman.service;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
 import java.util.Vector;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -73,10 +70,12 @@ import net.woocheol.inventoryman.R;
 import net.woocheol.inventoryman.activity.MainActivity;
 import net.woocheol.inventoryman.parser.RssAtomParser;
 import net.woocheol.inventoryman.provider.FeedData;
+import net.woocheol.inventoryman.provider.FeedData.CounterColumns;
 import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
 import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
 import net.woocheol.inventoryman.provider.FeedData.TaskColumns;
 import net.woocheol.inventoryman.provider.FeedDataContentProvider;
+import net.woocheol.inventoryman.utils.HtmlSanitizer;
 import net.woocheol.inventoryman.utils.NetworkUtils;
 import net.woocheol.inventoryman.utils.PrefUtils;
 import android.app.IntentService;
@@ -103,7 +102,6 @@ public class FetcherService extends IntentService {
     public static final String ACTION_REFRESH_FEEDS = "net.fred.feedex.REFRESH";
     public static final String ACTION_MOBILIZE_FEEDS = "net.fred.feedex.MOBILIZE_FEEDS";
 
-    private static final int THREAD_NUMBER = 3;
     private static final int MAX_TASK_ATTEMPT = 3;
 
     private static final String MOBILIZER_URL = "http://ftr.fivefilters.org/makefulltextfeed.php?url=";
@@ -111,24 +109,26 @@ public class FetcherService extends IntentService {
     private static final int FETCHMODE_DIRECT = 1;
     private static final int FETCHMODE_REENCODE = 2;
 
-    private static final String CHARSET = "charset=";
-    private static final String COUNT = "COUNT(*)";
+    private static final int REFRESH_HISTORY_SIZE = 10;
+    private static final long MAX_REFRESH_INTERVAL = 86400000l; // a feed is checked at least once a day
+    private static final long MAX_BACKOFF = 604800000l; // but a failing one only once a week
+    private static final int QUARANTINE_ERROR_COUNT = 5;
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final int HTML_PROBE_SIZE = 65536;
+
+    private static final String ISO_8859_1 = "ISO-8859-1";
+    private static final String UNREAD_SUM = "SUM(" + CounterColumns.UNREAD + ')';
     private static final String CONTENT_TYPE_TEXT_HTML = "text/html";
     private static final String HREF = "href=\"";
 
     private static final String HTML_BODY = "<body";
-    private static final String ENCODING = "encoding=\"";
     private static final String SERVICENAME = "RssFetcherService";
-    private static final String URL_SPACE = "%20";
     /* Allow different positions of the "rel" attribute w.r.t. the "href" attribute */
     private static final Pattern FEED_LINK_PATTERN = Pattern.compile(
             "[.]*<link[^>]* ((rel=alternate|rel=\"alternate\")[^>]* href=\"[^\"]*\"|href=\"[^\"]*\"[^>]* (rel=alternate|rel=\"alternate\"))[^>]*>",
             Pattern.CASE_INSENSITIVE);
 
-    // middle() is group 1; s* is important for non-whitespaces; ' also usable
-    private static final Pattern IMG_PATTERN = Pattern.compile("<img\\s+[^>]*src=\\s*['\"]([^'\"]+)['\"][^>]*>", Pattern.CASE_INSENSITIVE);
-
-    private static final Pattern DIV_TAG = Pattern.compile("<div([^>]*>.*)</div>");
 
     private NotificationManager mNotifMgr;
 
@@ -170,11 +170,11 @@ public class FetcherService extends IntentService {
             }
 
             String feedId = intent.getStringExtra(Constants.FEED_ID);
-            int newCount = (feedId == null ? refreshFeeds() : refreshFeed(feedId));
+            int newCount = (feedId == null ? refreshFeeds(isFromAutoRefresh) : refreshFeed(feedId));
 
             if (newCount > 0) {
                 if (PrefUtils.getBoolean(PrefUtils.NOTIFICATIONS_ENABLED, true)) {
-                    Cursor cursor = getContentResolver().query(EntryColumns.CONTENT_URI, new String[]{COUNT}, EntryColumns.WHERE_UNREAD, null, null);
+                    Cursor cursor = getContentResolver().query(CounterColumns.CONTENT_URI, new String[]{UNREAD_SUM}, null, null, null);
 
                     cursor.moveToFirst();
                     newCount = cursor.getInt(0); // The number has possibly changed
@@ -218,6 +218,8 @@ public class FetcherService extends IntentService {
             downloadAllImages();
 
             PrefUtils.putBoolean(PrefUtils.IS_REFRESHING, false);
+
+            RetentionService.startIfNeeded(this);
         }
     }
 
@@ -240,7 +242,7 @@ public class FetcherService extends IntentService {
         return result;
     }
 
-    public static void addImagesToDownload(String entryId, Vector<String> images) {
+    public static void addImagesToDownload(String entryId, List<String> images) {
         if (images != null) {
             ContentValues[] values = new ContentValues[images.size()];
             for (int i = 0; i < images.size(); i++) {
@@ -403,24 +405,27 @@ public class FetcherService extends IntentService {
         }
     }
 
-    private int refreshFeeds() {
+    private int refreshFeeds(boolean onlyDueFeeds) {
         ContentResolver cr = getContentResolver();
-        final Cursor cursor = cr.query(FeedColumns.CONTENT_URI, FeedColumns.PROJECTION_ID, null, null, null);
-        int nbFeed = cursor.getCount();
-
-        ExecutorService executor = Executors.newFixedThreadPool(THREAD_NUMBER, new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread(r);
-                t.setPriority(Thread.MIN_PRIORITY);
-                return t;
-            }
-        });
 
-        CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+        String where;
+        if (onlyDueFeeds) {
+            // Also take the feeds due before the next automatic refresh, they would be late otherwise
+            long dueLimit = System.currentTimeMillis() + RefreshService.getRefreshInterval() / 2;
+            where = '(' + FeedColumns.NEXT_REFRESH + Constants.DB_IS_NULL + Constants.DB_OR + FeedColumns.NEXT_REFRESH + "<=" + dueLimit + ')';
+        } else {
+            // A manual refresh ignores the polling schedule, but not the backoff, quarantine or Retry-After window of the failing feeds
+            where = '(' + FeedColumns.ERROR_COUNT + Constants.DB_IS_NULL + Constants.DB_OR + FeedColumns.ERROR_COUNT + Constants.DB_IS_FALSE
+                    + Constants.DB_OR + FeedColumns.NEXT_REFRESH + Constants.DB_IS_NULL + Constants.DB_OR + FeedColumns.NEXT_REFRESH + "<="
+                    + System.currentTimeMillis() + ')';
+        }
+        final Cursor cursor = cr.query(FeedColumns.CONTENT_URI, new String[]{FeedColumns._ID, FeedColumns.URL}, where, null, null);
+
+        FetchScheduler scheduler = FetchScheduler.getInstance();
+        ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>(cursor.getCount());
         while (cursor.moveToNext()) {
             final String feedId = cursor.getString(0);
-            completionService.submit(new Callable<Integer>() {
+            results.add(scheduler.submit(cursor.getString(1), new Callable<Integer>() {
                 @Override
                 public Integer call() {
                     int result = 0;
@@ -430,21 +435,18 @@ public class FetcherService extends IntentService {
                     }
                     return result;
                 }
-            });
+            }));
         }
         cursor.close();
 
         int globalResult = 0;
-        for (int i = 0; i < nbFeed; i++) {
+        for (Future<Integer> f : results) {
             try {
-                Future<Integer> f = completionService.take();
                 globalResult += f.get();
             } catch (Exception ignored) {
             }
         }
 
-        executor.shutdownNow(); // To purge all threads
-
         return globalResult;
     }
 
@@ -462,13 +464,42 @@ public class FetcherService extends IntentService {
             int realLastUpdatePosition = cursor.getColumnIndex(FeedColumns.REAL_LAST_UPDATE);
             int iconPosition = cursor.getColumnIndex(FeedColumns.ICON);
             int retrieveFullscreenPosition = cursor.getColumnIndex(FeedColumns.RETRIEVE_FULLTEXT);
+            int etagPosition = cursor.getColumnIndex(FeedColumns.HTTP_ETAG);
+            int lastModifiedPosition = cursor.getColumnIndex(FeedColumns.HTTP_LAST_MODIFIED);
+            int errorCountPosition = cursor.getColumnIndex(FeedColumns.ERROR_COUNT);
 
             String id = cursor.getString(idPosition);
+            int errorCount = cursor.getInt(errorCountPosition);
             HttpURLConnection connection = null;
+            long freshUntil = 0;
 
             try {
                 String feedUrl = cursor.getString(urlPosition);
-                connection = NetworkUtils.setupConnection(feedUrl);
+
+                if (errorCount >= QUARANTINE_ERROR_COUNT && !NetworkUtils.probe(feedUrl)) {
+                    // Quarantined and still dead: the HEAD request is enough to know it, no need to wait for a full fetch to time out
+                    throw new FileNotFoundException(feedUrl);
+                }
+
+                long connectionStart = SystemClock.elapsedRealtime();
+                connection = NetworkUtils.setupConnection(feedUrl, cursor.getString(etagPosition), cursor.getString(lastModifiedPosition));
+                int responseCode = connection.getResponseCode();
+                FetchScheduler.getInstance().reportLatency(feedUrl, SystemClock.elapsedRealtime() - connectionStart);
+
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    // Nothing changed since the last fetch, no need to download and parse it again
+                    ContentValues values = new ContentValues();
+                    values.putNull(FeedColumns.ERROR);
+                    values.put(FeedColumns.ERROR_COUNT, 0);
+                    values.put(FeedColumns.LAST_UPDATE, System.currentTimeMillis());
+                    if (cr.update(FeedColumns.CONTENT_URI(id), values, null, null) > 0) {
+                        FeedDataContentProvider.notifyGroupFromFeedId(id);
+                    }
+                    scheduleNextRefresh(cr, id, cursor.getLong(realLastUpdatePosition), NetworkUtils.getFreshUntil(connection));
+                    cursor.close();
+                    return 0;
+                }
+
                 String contentType = connection.getContentType();
                 int fetchMode = cursor.getInt(fetchmodePosition);
 
@@ -476,99 +507,35 @@ public class FetcherService extends IntentService {
                         cursor.getInt(retrieveFullscreenPosition) == 1);
                 handler.setFetchImages(PrefUtils.getBoolean(PrefUtils.FETCH_PICTURES, false));
 
-                if (fetchMode == 0) {
-                    if (contentType != null && contentType.startsWith(CONTENT_TYPE_TEXT_HTML)) {
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(NetworkUtils.getConnectionInputStream(connection)));
+                // Everything below only peeks at the beginning of this stream (mark/reset), the same stream is then given to the parser
+                InputStream inputStream = new BufferedInputStream(NetworkUtils.getConnectionInputStream(connection), STREAM_BUFFER_SIZE);
 
-                        String line;
-                        int posStart = -1;
+                if (fetchMode == 0 && contentType != null && contentType.startsWith(CONTENT_TYPE_TEXT_HTML)) {
+                    String url = findFeedLink(inputStream, feedUrl);
 
-                        while ((line = reader.readLine()) != null) {
-                            if (line.contains(HTML_BODY)) {
-                                break;
-                            } else {
-                                Matcher matcher = FEED_LINK_PATTERN.matcher(line);
-
-                                if (matcher.find()) { // not "while" as only one link is needed
-                                    line = matcher.group();
-                                    posStart = line.indexOf(HREF);
-
-                                    if (posStart > -1) {
-                                        String url = line.substring(posStart + 6, line.indexOf('"', posStart + 10)).replace(Constants.AMP_SG,
-                                                Constants.AMP);
-
-                                        ContentValues values = new ContentValues();
-
-                                        if (url.startsWith(Constants.SLASH)) {
-                                            int index = feedUrl.indexOf('/', 8);
-
-                                            if (index > -1) {
-                                                url = feedUrl.substring(0, index) + url;
-                                            } else {
-                                                url = feedUrl + url;
-                                            }
-                                        } else if (!url.startsWith(Constants.HTTP) && !url.startsWith(Constants.HTTPS)) {
-                                            url = feedUrl + '/' + url;
-                                        }
-                                        values.put(FeedColumns.URL, url);
-                                        cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
-                                        connection.disconnect();
-                                        connection = NetworkUtils.setupConnection(url);
-                                        contentType = connection.getContentType();
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                        // this indicates a badly configured feed
-                        if (posStart == -1) {
-                            connection.disconnect();
-                            connection = NetworkUtils.setupConnection(feedUrl);
-                            contentType = connection.getContentType();
-                        }
+                    if (url != null) {
+                        ContentValues values = new ContentValues();
+                        values.put(FeedColumns.URL, url);
+                        cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
+                        connection.disconnect();
+                        connection = NetworkUtils.setupConnection(url);
+                        contentType = connection.getContentType();
+                        inputStream = new BufferedInputStream(NetworkUtils.getConnectionInputStream(connection), STREAM_BUFFER_SIZE);
                     }
+                    // else this indicates a badly configured feed: the probed bytes are simply parsed as XML
+                }
 
-                    if (contentType != null) {
-                        int index = contentType.indexOf(CHARSET);
-
-                        if (index > -1) {
-                            int index2 = contentType.indexOf(';', index);
+                String charset = NetworkUtils.findCharset(inputStream, contentType);
 
-                            try {
-                                Xml.findEncodingByName(index2 > -1 ? contentType.substring(index + 8, index2) : contentType.substring(index + 8));
-                                fetchMode = FETCHMODE_DIRECT;
-                            } catch (UnsupportedEncodingException usee) {
-                                fetchMode = FETCHMODE_REENCODE;
-                            }
-                        } else {
+                if (fetchMode == 0) {
+                    // Only detected once, the saved mode is then used until a fetch fails
+                    fetchMode = FETCHMODE_DIRECT;
+                    if (charset != null) {
+                        try {
+                            Xml.findEncodingByName(charset);
+                        } catch (UnsupportedEncodingException usee) {
                             fetchMode = FETCHMODE_REENCODE;
                         }
-
-                    } else {
-                        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(NetworkUtils.getConnectionInputStream(connection)));
-
-                        char[] chars = new char[20];
-
-                        int length = bufferedReader.read(chars);
-
-                        String xmlDescription = new String(chars, 0, length);
-
-                        connection.disconnect();
-                        connection = NetworkUtils.setupConnection(connection.getURL());
-
-                        int start = xmlDescription != null ? xmlDescription.indexOf(ENCODING) : -1;
-
-                        if (start > -1) {
-                            try {
-                                Xml.findEncodingByName(xmlDescription.substring(start + 10, xmlDescription.indexOf('"', start + 11)));
-                                fetchMode = FETCHMODE_DIRECT;
-                            } catch (UnsupportedEncodingException usee) {
-                                fetchMode = FETCHMODE_REENCODE;
-                            }
-                        } else {
-                            // absolutely no encoding information found
-                            fetchMode = FETCHMODE_DIRECT;
-                        }
                     }
 
                     ContentValues values = new ContentValues();
@@ -576,63 +543,19 @@ public class FetcherService extends IntentService {
                     cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
                 }
 
-                switch (fetchMode) {
+                handler.setHttpValidators(connection.getHeaderField(NetworkUtils.HEADER_ETAG),
+                        connection.getHeaderField(NetworkUtils.HEADER_LAST_MODIFIED));
+                freshUntil = NetworkUtils.getFreshUntil(connection);
+
+                switch (charset != null ? fetchMode : FETCHMODE_DIRECT) { // nothing to decode without charset
                     default:
                     case FETCHMODE_DIRECT: {
-                        if (contentType != null) {
-                            int index = contentType.indexOf(CHARSET);
-
-                            int index2 = contentType.indexOf(';', index);
-
-                            InputStream inputStream = NetworkUtils.getConnectionInputStream(connection);
-                            Xml.parse(inputStream,
-                                    Xml.findEncodingByName(index2 > -1 ? contentType.substring(index + 8, index2) : contentType.substring(index + 8)),
-                                    handler);
-                        } else {
-                            InputStreamReader reader = new InputStreamReader(NetworkUtils.getConnectionInputStream(connection));
-                            Xml.parse(reader, handler);
-                        }
+                        handler.parse(inputStream, charset);
                         break;
                     }
                     case FETCHMODE_REENCODE: {
-                        ByteArrayOutputStream ouputStream = new ByteArrayOutputStream();
-                        InputStream inputStream = NetworkUtils.getConnectionInputStream(connection);
-
-                        byte[] byteBuffer = new byte[4096];
-
-                        int n;
-                        while ((n = inputStream.read(byteBuffer)) > 0) {
-                            ouputStream.write(byteBuffer, 0, n);
-                        }
-
-                        String xmlText = ouputStream.toString();
-
-                        int start = xmlText != null ? xmlText.indexOf(ENCODING) : -1;
-
-                        if (start > -1) {
-                            Xml.parse(
-                                    new StringReader(new String(ouputStream.toByteArray(),
-                                            xmlText.substring(start + 10, xmlText.indexOf('"', start + 11)))), handler);
-                        } else {
-                            // use content type
-                            if (contentType != null) {
-                                int index = contentType.indexOf(CHARSET);
-
-                                if (index > -1) {
-                                    int index2 = contentType.indexOf(';', index);
-
-                                    try {
-                                        StringReader reader = new StringReader(new String(ouputStream.toByteArray(), index2 > -1 ? contentType.substring(
-                                                index + 8, index2) : contentType.substring(index + 8)));
-                                        Xml.parse(reader, handler);
-                                    } catch (Exception ignored) {
-                                    }
-                                } else {
-                                    StringReader reader = new StringReader(new String(ouputStream.toByteArray()));
-                                    Xml.parse(reader, handler);
-                                }
-                            }
-                        }
+                        // Charset unknown to the XML parser: decode it on the fly, only STREAM_BUFFER_SIZE bytes are buffered at any time
+                        handler.parse(new InputStreamReader(inputStream, charset));
                         break;
                     }
                 }
@@ -640,29 +563,18 @@ public class FetcherService extends IntentService {
                 connection.disconnect();
             } catch (FileNotFoundException e) {
                 if (handler == null || (handler != null && !handler.isDone() && !handler.isCancelled())) {
-                    ContentValues values = new ContentValues();
-
-                    // resets the fetchmode to determine it again later
-                    values.put(FeedColumns.FETCH_MODE, 0);
-
-                    values.put(FeedColumns.ERROR, getString(R.string.error_feed_error));
-                    if (cr.update(FeedColumns.CONTENT_URI(id), values, null, null) > 0) {
-                        FeedDataContentProvider.notifyGroupFromFeedId(id);
-                    }
+                    saveRefreshError(cr, id, errorCount, getString(R.string.error_feed_error), 0);
                 }
             } catch (Throwable e) {
                 if (handler == null || (handler != null && !handler.isDone() && !handler.isCancelled())) {
-                    ContentValues values = new ContentValues();
-
-                    // resets the fetchmode to determine it again later
-                    values.put(FeedColumns.FETCH_MODE, 0);
-
-                    values.put(FeedColumns.ERROR, e.getMessage() != null ? e.getMessage() : getString(R.string.error_feed_process));
-                    if (cr.update(FeedColumns.CONTENT_URI(id), values, null, null) > 0) {
-                        FeedDataContentProvider.notifyGroupFromFeedId(id);
-                    }
+                    // The server may be overloaded or rate-limiting us, in this case don't come back before it asked to
+                    long retryAfter = connection != null ? NetworkUtils.getRetryAfter(connection) : 0;
+                    saveRefreshError(cr, id, errorCount, e.getMessage() != null ? e.getMessage() : getString(R.string.error_feed_process), retryAfter);
                 }
             } finally {
+                if (handler != null && handler.isDone()) {
+                    scheduleNextRefresh(cr, id, cursor.getLong(realLastUpdatePosition), freshUntil);
+                }
 
 				/* check and optionally find favicon */
                 try {
@@ -688,59 +600,159 @@ public class FetcherService extends IntentService {
         return handler != null ? handler.getNewCount() : 0;
     }
 
-    public static Pair<String, Vector<String>> improveHtmlContent(String content, boolean fetchImages) {
-        if (content != null) {
-            // remove trashes
-            content = content.trim().replaceAll("(?i)<[/]?[ ]?span(.|\n)*?>", "").replaceAll("(?i)<blockquote", "<div")
-                    .replaceAll("(?i)</blockquote", "</div");
-            // remove ads
-            content = content.replaceAll("(?i)<div class=('|\")mf-viral('|\")><table border=('|\")0('|\")>.*", "");
-            // remove lazy loading images stuff
-            content = content.replaceAll("(?i)\\s+src=[^>]+\\s+original[-]*src=(\"|')", " src=$1");
-            // remove bad image paths
-            content = content.replaceAll("(?i)\\s+(href|src)=(\"|')//", " $1=$2http://");
-
-            // Remove unmatched div tags
-            content = content.replaceAll("(?i)<div", "<div").replaceAll("(?i)</div>", "</div>");
-            boolean found;
-            do {
-                found = false;
-                Matcher matcher = DIV_TAG.matcher(content);
-                while (matcher.find()) {
-                    String matchedStr = matcher.group(1);
-                    if (!matchedStr.contains("<div")) {
-                        content = content.replace(matcher.group(0), "<__DIV__" + matchedStr + "</__DIV__>");
-                        found = true;
-                    }
-                }
-            } while (found);
-            content = content.replaceAll("<div[^>]*>", "").replaceAll("</div>", "");
-            content = content.replaceAll("<__DIV__", "<div").replaceAll("</__DIV__>", "</div>");
+    /**
+     * Saves a failed fetch. The feed is then retried with an exponential backoff and, after QUARANTINE_ERROR_COUNT failures in a row, it is
+     * quarantined: it is only probed with a HEAD request until it answers again.
+     *
+     * @param errorCount the number of failures in a row before this one
+     * @param retryAfter the time before which the server asked not to be called again, or 0
+     */
+    private static void saveRefreshError(ContentResolver cr, String feedId, int errorCount, String error, long retryAfter) {
+        ContentValues values = new ContentValues();
+
+        if (errorCount == 0) {
+            // resets the fetchmode so the next fetch probes the html page and the charset again (once is enough, not at each retry)
+            values.put(FeedColumns.FETCH_MODE, 0);
+        }
+        // and forces a full download next time
+        values.putNull(FeedColumns.HTTP_ETAG);
+        values.putNull(FeedColumns.HTTP_LAST_MODIFIED);
+
+        errorCount++;
+        long now = System.currentTimeMillis();
+        long nextRefresh = now + Math.min(MAX_BACKOFF, (long) RefreshService.getRefreshInterval() << Math.min(errorCount - 1, 16));
+        if (retryAfter > 0) {
+            nextRefresh = Math.max(nextRefresh, Math.min(retryAfter, now + MAX_REFRESH_INTERVAL));
+        }
 
-            if (content.length() > 0) {
-                Vector<String> images = null;
-                if (fetchImages) {
-                    images = new Vector<String>(4);
+        values.put(FeedColumns.ERROR_COUNT, errorCount);
+        values.put(FeedColumns.NEXT_REFRESH, nextRefresh);
+        values.put(FeedColumns.ERROR, error);
+        if (cr.update(FeedColumns.CONTENT_URI(feedId), values, null, null) > 0) {
+            FeedDataContentProvider.notifyGroupFromFeedId(feedId);
+        }
+    }
+
+    /**
+     * Computes when a feed should be fetched again from the rate its entries are posted at, so that a feed posting once a month is not
+     * polled as often as a news feed. The publisher hints (RSS ttl, skipHours and skipDays, sy:updatePeriod and the HTTP cache headers) are
+     * honored as well.
+     *
+     * @param freshUntil the time until which the last response is fresh according to the HTTP cache headers, or 0
+     */
+    private static void scheduleNextRefresh(ContentResolver cr, String feedId, long realLastUpdate, long freshUntil) {
+        long now = System.currentTimeMillis();
+        long minInterval = RefreshService.getRefreshInterval();
+
+        Cursor cursor = cr.query(EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(feedId), new String[]{EntryColumns.DATE}, null, null,
+                EntryColumns.DATE + Constants.DB_DESC + " LIMIT " + REFRESH_HISTORY_SIZE);
+        int count = cursor.getCount();
+        long newestDate = 0;
+        long oldestDate = 0;
+        if (cursor.moveToFirst()) {
+            newestDate = cursor.getLong(0);
+            cursor.moveToLast();
+            oldestDate = cursor.getLong(0);
+        }
+        cursor.close();
 
-                    Matcher matcher = IMG_PATTERN.matcher(content);
+        long publisherTtl = 0;
+        int skipHours = 0;
+        int skipDays = 0;
+        cursor = cr.query(FeedColumns.CONTENT_URI(feedId), new String[]{FeedColumns.PUBLISHER_TTL, FeedColumns.SKIP_HOURS, FeedColumns.SKIP_DAYS},
+                null, null, null);
+        if (cursor.moveToFirst()) {
+            publisherTtl = cursor.getLong(0);
+            skipHours = cursor.getInt(1);
+            skipDays = cursor.getInt(2);
+        }
+        cursor.close();
+
+        long interval = minInterval;
+        if (count > 1 && newestDate > oldestDate) {
+            // Check twice per average gap between two entries
+            interval = (newestDate - oldestDate) / (count - 1) / 2;
+        }
 
-                    while (matcher.find()) {
-                        String match = matcher.group(1).replace(" ", URL_SPACE);
+        // The longer a feed has been silent, the less often it is checked
+        long lastPostDate = Math.max(newestDate, realLastUpdate);
+        if (lastPostDate > 0 && lastPostDate < now) {
+            interval = Math.max(interval, (now - lastPostDate) / 4);
+        }
 
-                        images.add(match);
-                        try {
-                            // replace the '%' that may occur while urlencode such that the img-src url (in the abstract text) does reinterpret the
-                            // parameters
-                            content = content.replace(
-                                    match,
-                                    (Constants.FILE_URL + NetworkUtils.IMAGE_FOLDER + Constants.IMAGEID_REPLACEMENT + URLEncoder.encode(
-                                            match.substring(match.lastIndexOf('/') + 1), Constants.UTF8)).replace(NetworkUtils.PERCENT, NetworkUtils.PERCENT_REPLACE));
-                        } catch (UnsupportedEncodingException e) {
-                            // UTF-8 should be supported
-                        }
+        interval = Math.max(minInterval, Math.min(MAX_REFRESH_INTERVAL, Math.max(interval, publisherTtl)));
+        long nextRefresh = Math.max(now + interval, Math.min(freshUntil, now + MAX_REFRESH_INTERVAL));
+
+        // Move it to the first hour the publisher does not ask to skip
+        if (skipHours != 0 || skipDays != 0) {
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+            calendar.setTimeInMillis(nextRefresh);
+            for (int i = 0; i < 24 * 7 && ((skipHours & (1 << calendar.get(Calendar.HOUR_OF_DAY))) != 0
+                    || (skipDays & (1 << (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY))) != 0); i++) {
+                calendar.add(Calendar.HOUR_OF_DAY, 1);
+                calendar.set(Calendar.MINUTE, 0);
+                calendar.set(Calendar.SECOND, 0);
+            }
+            nextRefresh = calendar.getTimeInMillis();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(FeedColumns.NEXT_REFRESH, nextRefresh);
+        cr.update(FeedColumns.CONTENT_URI(feedId), values, null, null);
+    }
+
+    /**
+     * Looks for an alternate feed link in the head of an HTML page, without consuming the stream if none is found.
+     */
+    private static String findFeedLink(InputStream inputStream, String feedUrl) throws IOException {
+        inputStream.mark(HTML_PROBE_SIZE);
+
+        byte[] buffer = new byte[HTML_PROBE_SIZE];
+        int length = 0;
+        int n;
+        while (length < HTML_PROBE_SIZE && (n = inputStream.read(buffer, length, HTML_PROBE_SIZE - length)) > 0) {
+            length += n;
+        }
+        inputStream.reset();
+
+        String head = new String(buffer, 0, length, ISO_8859_1);
+        int bodyIndex = head.indexOf(HTML_BODY);
+        if (bodyIndex > -1) {
+            head = head.substring(0, bodyIndex);
+        }
+
+        Matcher matcher = FEED_LINK_PATTERN.matcher(head);
+        if (matcher.find()) { // not "while" as only one link is needed
+            String line = matcher.group();
+            int posStart = line.indexOf(HREF);
+
+            if (posStart > -1) {
+                String url = line.substring(posStart + 6, line.indexOf('"', posStart + 10)).replace(Constants.AMP_SG, Constants.AMP);
+
+                if (url.startsWith(Constants.SLASH)) {
+                    int index = feedUrl.indexOf('/', 8);
+
+                    if (index > -1) {
+                        url = feedUrl.substring(0, index) + url;
+                    } else {
+                        url = feedUrl + url;
                     }
+                } else if (!url.startsWith(Constants.HTTP) && !url.startsWith(Constants.HTTPS)) {
+                    url = feedUrl + '/' + url;
                 }
+                return url;
+            }
+        }
+
+        return null;
+    }
 
+    public static Pair<String, Vector<String>> improveHtmlContent(String content, boolean fetchImages) {
+        if (content != null) {
+            Vector<String> images = fetchImages ? new Vector<String>(4) : null;
+            content = HtmlSanitizer.sanitize(content, NetworkUtils.IMAGE_URL_PREFIX, images);
+
+            if (content.length() > 0) {
                 return new Pair<String, Vector<String>>(content, images);
             }
         }
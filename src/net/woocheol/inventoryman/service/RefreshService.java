@@ -76,6 +76,18 @@ public class RefreshService extends Service {
         }
     };
 
+    /**
+     * The global refresh interval, which is also the shortest interval a single feed can be refreshed at.
+     */
+    public static int getRefreshInterval() {
+        int time = 3600000;
+        try {
+            time = Math.max(60000, Integer.parseInt(PrefUtils.getString(PrefUtils.REFRESH_INTERVAL, SIXTY_MINUTES)));
+        } catch (Exception ignored) {
+        }
+        return time;
+    }
+
     private AlarmManager alarmManager;
     private PendingIntent timerIntent;
 
@@ -106,11 +118,7 @@ public class RefreshService extends Service {
             alarmManager.cancel(timerIntent);
         }
 
-        int time = 3600000;
-        try {
-            time = Math.max(60000, Integer.parseInt(PrefUtils.getString(PrefUtils.REFRESH_INTERVAL, SIXTY_MINUTES)));
-        } catch (Exception ignored) {
-        }
+        int time = getRefreshInterval();
 
         long initialRefreshTime = SystemClock.elapsedRealtime() + 10000;
 
@@ -0,0 +1,131 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.service;
+
+import net.woocheol.inventoryman.Constants;
+import net.woocheol.inventoryman.provider.FeedData;
+import net.woocheol.inventoryman.provider.FeedData.EntryColumns;
+import net.woocheol.inventoryman.utils.LongSet;
+import net.woocheol.inventoryman.utils.NetworkUtils;
+import net.woocheol.inventoryman.utils.PrefUtils;
+import android.app.IntentService;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.Process;
+
+/**
+ * Deletes the entries older than the keep time with their cached images, then gives the freed space back to the file system. It runs in
+ * the background at most once per period, in small transactions, so the refreshes are never waiting for it.
+ */
+public class RetentionService extends IntentService {
+
+    private static final String SERVICENAME = "RetentionService";
+
+    private static final long RETENTION_PERIOD = 86400000l;
+    private static final int BATCH_SIZE = 200;
+    private static final int MAX_VACUUM_PAGES = 2048;
+
+    public RetentionService() {
+        super(SERVICENAME);
+    }
+
+    /**
+     * Starts the service if it did not run during the last period
+     */
+    public static void startIfNeeded(Context context) {
+        if (isNeeded()) {
+            context.startService(new Intent(context, RetentionService.class));
+        }
+    }
+
+    private static boolean isNeeded() {
+        long lastRetention = PrefUtils.getLong(PrefUtils.LAST_RETENTION, 0);
+        long now = System.currentTimeMillis();
+        return now - lastRetention >= RETENTION_PERIOD || lastRetention > now; // also when the clock went back
+    }
+
+    @Override
+    public void onHandleIntent(Intent intent) {
+        if (!isNeeded()) { // already done for an other start request
+            return;
+        }
+        PrefUtils.putLong(PrefUtils.LAST_RETENTION, System.currentTimeMillis());
+
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        long keepTime = Long.parseLong(PrefUtils.getString(PrefUtils.KEEP_TIME, "4")) * 86400000l;
+        if (keepTime > 0) {
+            deleteOldEntries(System.currentTimeMillis() - keepTime);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putBoolean(FeedData.EXTRA_ALLOW_VACUUM, isCharging());
+        getContentResolver().call(EntryColumns.CONTENT_URI, FeedData.METHOD_COMPACT, String.valueOf(MAX_VACUUM_PAGES), extras);
+    }
+
+    private boolean isCharging() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)); // sticky, nothing is registered
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private void deleteOldEntries(long keepDateBorderTime) {
+        ContentResolver cr = getContentResolver();
+        Uri batchUri = EntryColumns.CONTENT_URI.buildUpon().appendQueryParameter(FeedData.QUERY_PARAMETER_LIMIT, String.valueOf(BATCH_SIZE))
+                .build();
+        String where = EntryColumns.DATE + '<' + keepDateBorderTime + Constants.DB_AND + EntryColumns.WHERE_NOT_FAVORITE;
+
+        LongSet entriesId = new LongSet();
+        StringBuilder idList = new StringBuilder();
+        while (true) {
+            entriesId.clear();
+            idList.setLength(0);
+
+            Cursor cursor = cr.query(batchUri, EntryColumns.PROJECTION_ID, where, null, null);
+            while (cursor.moveToNext()) {
+                long entryId = cursor.getLong(0);
+                entriesId.add(entryId);
+                if (idList.length() > 0) {
+                    idList.append(',');
+                }
+                idList.append(entryId);
+            }
+            cursor.close();
+
+            if (entriesId.isEmpty()) {
+                return;
+            }
+
+            // The images first, the entries would else be gone without their images
+            NetworkUtils.deleteEntriesImagesCache(entriesId);
+
+            // Each batch is its own transaction, the fetches can write in between
+            int count = cr.delete(EntryColumns.CONTENT_URI, EntryColumns._ID + " IN (" + idList + ')', null);
+            if (count == 0 || entriesId.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.List;
+
+/**
+ * Cleans up the html of the entries in a single traversal: removes the span tags, turns the blockquotes into divs, removes the known ads,
+ * fixes the lazy loaded and protocol relative urls, drops the unbalanced divs and extracts the images to download. Plain Java, like the
+ * FeedParser using it.
+ */
+public class HtmlSanitizer {
+
+    public static final String PERCENT = "%";
+    // This can be any valid filename character sequence which does not contain '%'
+    public static final String PERCENT_REPLACE = "____";
+
+    private static final String DIV = "div";
+    private static final String SPAN = "span";
+    private static final String BLOCKQUOTE = "blockquote";
+    private static final String IMG = "img";
+    private static final String SRC = "src";
+    private static final String HREF = "href";
+    private static final String CLASS = "class";
+    private static final String ORIGINAL = "original";
+    private static final String OPEN_DIV = "<div";
+    private static final String CLOSE_DIV = "</div>";
+    private static final String COMMENT_START = "<!--";
+    private static final String COMMENT_END = "-->";
+    private static final String PROTOCOL_RELATIVE = "//";
+    private static final String HTTP_SCHEME = "http:";
+    private static final String SPACE = " ";
+    private static final String URL_SPACE = "%20";
+    private static final String UTF8 = "UTF-8";
+
+    // Ads inserted by some feeds, removed up to the end of the line
+    private static final String AD_CLASS = "mf-viral";
+    private static final String AD_TABLE = "<table border=";
+
+    private static final int NAME_START = 0, NAME_END = 1, VALUE_START = 2, VALUE_END = 3;
+
+    /**
+     * @param images if not null, the src of the images are replaced by imageUrlPrefix + their file name and the original urls are added to it
+     */
+    public static String sanitize(String content, String imageUrlPrefix, List<String> images) {
+        content = content.trim();
+        int length = content.length();
+        StringBuilder out = new StringBuilder(length);
+
+        // start and end offsets in 'out' of the divs not closed yet, the ones still open at the end are removed
+        int[] openDivs = new int[16];
+        int openDivCount = 0;
+
+        int pos = 0;
+        while (pos < length) {
+            int tagStart = content.indexOf('<', pos);
+            if (tagStart == -1) {
+                out.append(content, pos, length);
+                break;
+            }
+            out.append(content, pos, tagStart);
+
+            if (content.startsWith(COMMENT_START, tagStart)) {
+                int commentEnd = content.indexOf(COMMENT_END, tagStart + COMMENT_START.length());
+                pos = commentEnd == -1 ? length : commentEnd + COMMENT_END.length();
+                out.append(content, tagStart, pos);
+                continue;
+            }
+
+            int tagEnd = content.indexOf('>', tagStart);
+            if (tagEnd == -1) {
+                out.append(content, tagStart, length);
+                break;
+            }
+
+            int i = tagStart + 1;
+            boolean closing = false;
+            if (content.charAt(i) == '/') {
+                closing = true;
+                i++;
+            }
+            if (content.charAt(i) == ' ') {
+                i++;
+            }
+            int nameStart = i;
+            while (i < tagEnd && Character.isLetterOrDigit(content.charAt(i))) {
+                i++;
+            }
+            int nameEnd = i;
+
+            if (nameEnd == nameStart) { // not a tag, like in "a < b"
+                out.append('<');
+                pos = tagStart + 1;
+                continue;
+            }
+            pos = tagEnd + 1;
+
+            if (equalsIgnoreCase(content, nameStart, nameEnd, SPAN)) {
+                continue;
+            }
+
+            if (equalsIgnoreCase(content, nameStart, nameEnd, DIV) || equalsIgnoreCase(content, nameStart, nameEnd, BLOCKQUOTE)) {
+                if (closing) {
+                    if (openDivCount > 0) {
+                        openDivCount--;
+                        out.append(CLOSE_DIV);
+                    }
+                } else if (isAd(content, nameEnd, tagEnd)) {
+                    int lineEnd = content.indexOf('\n', pos);
+                    pos = lineEnd == -1 ? length : lineEnd;
+                } else {
+                    if (openDivCount * 2 == openDivs.length) {
+                        int[] newOpenDivs = new int[openDivs.length * 2];
+                        System.arraycopy(openDivs, 0, newOpenDivs, 0, openDivs.length);
+                        openDivs = newOpenDivs;
+                    }
+                    openDivs[openDivCount * 2] = out.length();
+                    out.append(OPEN_DIV);
+                    appendAttributes(content, nameEnd, tagEnd, out, null, null);
+                    out.append('>');
+                    openDivs[openDivCount * 2 + 1] = out.length();
+                    openDivCount++;
+                }
+                continue;
+            }
+
+            out.append(content, tagStart, nameEnd);
+            boolean isImage = !closing && equalsIgnoreCase(content, nameStart, nameEnd, IMG);
+            appendAttributes(content, nameEnd, tagEnd, out, isImage ? imageUrlPrefix : null, isImage ? images : null);
+            out.append('>');
+        }
+
+        // Remove the unmatched opening divs, the last ones first to keep the offsets valid
+        while (openDivCount > 0) {
+            openDivCount--;
+            out.delete(openDivs[openDivCount * 2], openDivs[openDivCount * 2 + 1]);
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Copies the attributes found between start and end (the '>' of the tag), fixing their urls on the way
+     */
+    private static void appendAttributes(String content, int start, int end, StringBuilder out, String imageUrlPrefix, List<String> images) {
+        int[] attribute = new int[4];
+
+        // Lazy loading images put the real url in an "original-src" attribute, which then replaces the src one
+        int originalSrcStart = -1;
+        boolean hasSrc = false;
+        int i = start;
+        while ((i = nextAttribute(content, i, end, attribute)) != -1) {
+            if (isOriginalSrc(content, attribute)) {
+                originalSrcStart = attribute[NAME_START];
+            } else if (equalsIgnoreCase(content, attribute[NAME_START], attribute[NAME_END], SRC)) {
+                hasSrc = true;
+            }
+        }
+        boolean lazyLoading = hasSrc && originalSrcStart != -1;
+
+        int copied = start;
+        i = start;
+        int previousEnd = start;
+        while ((i = nextAttribute(content, i, end, attribute)) != -1) {
+            boolean isSrc = equalsIgnoreCase(content, attribute[NAME_START], attribute[NAME_END], SRC);
+
+            if (lazyLoading && isSrc) { // skipped with the spaces before it
+                out.append(content, copied, previousEnd);
+                copied = i;
+            } else if (attribute[VALUE_START] != -1) {
+                if (lazyLoading && attribute[NAME_START] == originalSrcStart) {
+                    out.append(content, copied, attribute[NAME_START]).append(SRC);
+                    copied = attribute[NAME_END];
+                    isSrc = true;
+                }
+
+                if (isSrc || equalsIgnoreCase(content, attribute[NAME_START], attribute[NAME_END], HREF)) {
+                    String value = content.substring(attribute[VALUE_START], attribute[VALUE_END]);
+                    String newValue = value;
+                    if (newValue.startsWith(PROTOCOL_RELATIVE)) {
+                        newValue = HTTP_SCHEME + newValue;
+                    }
+                    if (isSrc && images != null) {
+                        newValue = getLocalImageUrl(newValue, imageUrlPrefix, images);
+                    }
+
+                    if (newValue != value) {
+                        out.append(content, copied, attribute[VALUE_START]).append(newValue);
+                        copied = attribute[VALUE_END];
+                    }
+                }
+            }
+
+            previousEnd = i;
+        }
+
+        out.append(content, copied, end);
+    }
+
+    private static String getLocalImageUrl(String url, String imageUrlPrefix, List<String> images) {
+        url = url.replace(SPACE, URL_SPACE);
+        images.add(url);
+        try {
+            // replace the '%' that may occur while urlencode such that the img-src url (in the abstract text) does reinterpret the parameters
+            return imageUrlPrefix
+                    + URLEncoder.encode(url.substring(url.lastIndexOf('/') + 1), UTF8).replace(PERCENT, PERCENT_REPLACE);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 should be supported
+            return url;
+        }
+    }
+
+    /**
+     * Reads the attribute starting after 'start' into 'attribute' (VALUE_START is -1 when it has no value)
+     *
+     * @return the position after the attribute, or -1 when there is none left
+     */
+    private static int nextAttribute(String content, int start, int end, int[] attribute) {
+        int i = start;
+        while (i < end && (isWhitespace(content.charAt(i)) || content.charAt(i) == '/')) {
+            i++;
+        }
+        if (i == end) {
+            return -1;
+        }
+
+        attribute[NAME_START] = i;
+        while (i < end && !isWhitespace(content.charAt(i)) && content.charAt(i) != '=' && content.charAt(i) != '/') {
+            i++;
+        }
+        if (i == attribute[NAME_START]) { // a lone '=', kept as is
+            i++;
+        }
+        attribute[NAME_END] = i;
+
+        int j = i;
+        while (j < end && isWhitespace(content.charAt(j))) {
+            j++;
+        }
+        if (j == end || content.charAt(j) != '=' || content.charAt(attribute[NAME_START]) == '=') {
+            attribute[VALUE_START] = attribute[VALUE_END] = -1;
+            return i;
+        }
+
+        j++;
+        while (j < end && isWhitespace(content.charAt(j))) {
+            j++;
+        }
+
+        char quote = j < end ? content.charAt(j) : 0;
+        if (quote == '"' || quote == '\'') {
+            attribute[VALUE_START] = j + 1;
+            int closingQuote = content.indexOf(quote, j + 1);
+            if (closingQuote == -1 || closingQuote > end) {
+                attribute[VALUE_END] = end;
+                return end;
+            }
+            attribute[VALUE_END] = closingQuote;
+            return closingQuote + 1;
+        }
+
+        attribute[VALUE_START] = j;
+        while (j < end && !isWhitespace(content.charAt(j))) {
+            j++;
+        }
+        attribute[VALUE_END] = j;
+        return j;
+    }
+
+    private static boolean isAd(String content, int start, int end) {
+        int[] attribute = new int[4];
+        int i = start;
+        while ((i = nextAttribute(content, i, end, attribute)) != -1) {
+            if (attribute[VALUE_START] != -1 && equalsIgnoreCase(content, attribute[NAME_START], attribute[NAME_END], CLASS)
+                    && equalsIgnoreCase(content, attribute[VALUE_START], attribute[VALUE_END], AD_CLASS)) {
+                return content.regionMatches(true, end + 1, AD_TABLE, 0, AD_TABLE.length());
+            }
+        }
+        return false;
+    }
+
+    // "original-src", "originalsrc" or "original--src"
+    private static boolean isOriginalSrc(String content, int[] attribute) {
+        int nameStart = attribute[NAME_START], nameEnd = attribute[NAME_END];
+        if (attribute[VALUE_START] == -1 || !content.regionMatches(true, nameStart, ORIGINAL, 0, ORIGINAL.length())) {
+            return false;
+        }
+        int i = nameStart + ORIGINAL.length();
+        while (i < nameEnd && content.charAt(i) == '-') {
+            i++;
+        }
+        return equalsIgnoreCase(content, i, nameEnd, SRC);
+    }
+
+    private static boolean equalsIgnoreCase(String content, int start, int end, String value) {
+        return end - start == value.length() && content.regionMatches(true, start, value, 0, value.length());
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs (open addressing, linear probing), to avoid boxing every id in the hot paths. Not thread safe.
+ */
+public class LongSet {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final long FREE = 0; // the ids start at 1, 0 is stored aside
+
+    private long[] mKeys = new long[MIN_CAPACITY];
+    private int mSize = 0;
+    private boolean mHasZero = false;
+
+    public boolean contains(long value) {
+        if (value == FREE) {
+            return mHasZero;
+        }
+        return mKeys[indexOf(mKeys, value)] == value;
+    }
+
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (mHasZero) {
+                return false;
+            }
+            mHasZero = true;
+            mSize++;
+            return true;
+        }
+
+        int index = indexOf(mKeys, value);
+        if (mKeys[index] == value) {
+            return false;
+        }
+        mKeys[index] = value;
+        if (++mSize * 2 > mKeys.length) { // keep at least half of the slots free
+            rehash(mKeys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(long value) {
+        if (value == FREE) {
+            if (!mHasZero) {
+                return false;
+            }
+            mHasZero = false;
+            mSize--;
+            return true;
+        }
+
+        int index = indexOf(mKeys, value);
+        if (mKeys[index] != value) {
+            return false;
+        }
+        mKeys[index] = FREE;
+        mSize--;
+
+        // Move back the next values of the probe sequence, so they can still be found
+        int mask = mKeys.length - 1;
+        for (int i = (index + 1) & mask; ; i = (i + 1) & mask) {
+            long moved = mKeys[i];
+            if (moved == FREE) {
+                break;
+            }
+            mKeys[i] = FREE;
+            mKeys[indexOf(mKeys, moved)] = moved;
+        }
+        return true;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        if (mKeys.length > MIN_CAPACITY) {
+            mKeys = new long[MIN_CAPACITY];
+        } else {
+            Arrays.fill(mKeys, FREE);
+        }
+        mSize = 0;
+        mHasZero = false;
+    }
+
+    public void addAll(LongSet other) {
+        long[] values = other.toArray();
+        for (long value : values) {
+            add(value);
+        }
+    }
+
+    public long[] toArray() {
+        long[] result = new long[mSize];
+        int i = 0;
+        if (mHasZero) {
+            result[i++] = FREE;
+        }
+        for (long key : mKeys) {
+            if (key != FREE) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        mKeys = new long[capacity];
+        for (long key : oldKeys) {
+            if (key != FREE) {
+                mKeys[indexOf(mKeys, key)] = key;
+            }
+        }
+    }
+
+    private static int indexOf(long[] keys, long value) {
+        int mask = keys.length - 1;
+        long hash = value * 0x9E3779B97F4A7C15L; // spreads the consecutive ids
+        int index = (int) (hash ^ (hash >>> 32)) & mask;
+        while (keys[index] != FREE && keys[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+}
@@ -22,6 +22,8 @@ package net.woocheol.inventoryman.utils;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
@@ -33,7 +35,6 @@ import net.woocheol.inventoryman.provider.FeedDataContentProvider;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -42,18 +43,19 @@ import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.List;
-import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 public class NetworkUtils {
 
     public static final File IMAGE_FOLDER_FILE = new File(MainApplication.getContext().getCacheDir(), "images/");
     public static final String IMAGE_FOLDER = IMAGE_FOLDER_FILE.getAbsolutePath() + '/';
+    public static final String IMAGE_URL_PREFIX = Constants.FILE_URL + IMAGE_FOLDER + Constants.IMAGEID_REPLACEMENT;
 
-    public static final String PERCENT = "%";
-    // This can be any valid filename character sequence which does not contain '%'
-    public static final String PERCENT_REPLACE = "____";
+    public static final String PERCENT = HtmlSanitizer.PERCENT;
+    public static final String PERCENT_REPLACE = HtmlSanitizer.PERCENT_REPLACE;
 
     private static final String GZIP = "gzip";
     private static final String FILE_FAVICON = "/favicon.ico";
@@ -61,27 +63,31 @@ public class NetworkUtils {
     private static final String _HTTP = "http";
     private static final String _HTTPS = "https";
 
-    private static class PictureFilenameFilter implements FilenameFilter {
-        private static final String REGEX = "__[^\\.]*\\.[A-Za-z]*";
-
-        private Pattern pattern;
-
-        public PictureFilenameFilter(String entryId) {
-            setEntryId(entryId);
-        }
-
-        public PictureFilenameFilter() {
-        }
-
-        public void setEntryId(String entryId) {
-            pattern = Pattern.compile(entryId + REGEX);
-        }
-
-        @Override
-        public boolean accept(File dir, String filename) {
-            return pattern.matcher(filename).find();
-        }
-    }
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_EXPIRES = "Expires";
+    private static final String HEADER_AGE = "Age";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+    private static final String MAX_AGE = "max-age=";
+    private static final String NO_CACHE = "no-cache";
+    private static final String NO_STORE = "no-store";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final String USER_AGENT = "Mozilla AppleWebKit Chrome Safari";
+    private static final String HEAD = "HEAD";
+    private static final int PROBE_TIMEOUT = 10000;
+
+    private static final int CHARSET_PROBE_SIZE = 512;
+    private static final String CHARSET = "charset=";
+    private static final String XML_DECLARATION_START = "<?xml";
+    private static final String XML_DECLARATION_END = "?>";
+    private static final String ENCODING = "encoding=";
+    private static final String UTF16 = "UTF-16";
+    private static final String ISO_8859_1 = "ISO-8859-1";
 
     public static void downloadImage(long entryId, String imgPath) throws IOException {
         IMAGE_FOLDER_FILE.mkdir(); // create images dir
@@ -96,23 +102,37 @@ public class NetworkUtils {
         fos.close();
     }
 
-    public static synchronized void deleteFeedImagesCache(Uri entriesUri, String selection) {
-        if (IMAGE_FOLDER_FILE.exists()) {
-            PictureFilenameFilter filenameFilter = new PictureFilenameFilter();
+    public static void deleteFeedImagesCache(Uri entriesUri, String selection) {
+        LongSet entriesId = new LongSet();
+        Cursor cursor = MainApplication.getContext().getContentResolver().query(entriesUri, FeedData.EntryColumns.PROJECTION_ID, selection, null, null);
+        while (cursor.moveToNext()) {
+            entriesId.add(cursor.getLong(0));
+        }
+        cursor.close();
 
-            Cursor cursor = MainApplication.getContext().getContentResolver().query(entriesUri, FeedData.EntryColumns.PROJECTION_ID, selection, null, null);
+        deleteEntriesImagesCache(entriesId);
+    }
 
-            while (cursor.moveToNext()) {
-                filenameFilter.setEntryId(cursor.getString(0));
+    /**
+     * Lists the image folder once for all the entries. The files are prefixed by the id of their entry, so no lock is needed.
+     */
+    public static void deleteEntriesImagesCache(LongSet entriesId) {
+        File[] files = entriesId.isEmpty() ? null : IMAGE_FOLDER_FILE.listFiles();
+        if (files == null) {
+            return;
+        }
 
-                File[] files = IMAGE_FOLDER_FILE.listFiles(filenameFilter);
-                if (files != null) {
-                    for (File file : files) {
+        for (File file : files) {
+            String filename = file.getName();
+            int separator = filename.indexOf(Constants.IMAGEFILE_IDSEPARATOR);
+            if (separator > 0) {
+                try {
+                    if (entriesId.contains(Long.parseLong(filename.substring(0, separator)))) {
                         file.delete();
                     }
+                } catch (NumberFormatException ignored) {
                 }
             }
-            cursor.close();
         }
     }
 
@@ -140,7 +160,7 @@ public class NetworkUtils {
             ContentValues values = new ContentValues();
             try {
                 byte[] iconBytes = getBytes(getConnectionInputStream(iconURLConnection));
-                values.put(FeedData.FeedColumns.ICON, iconBytes);
+                values.put(FeedData.FeedColumns.ICON, scaleFavicon(iconBytes));
             } catch (Exception e) {
                 // no icon found or error
                 values.put(FeedData.FeedColumns.ICON, new byte[0]);
@@ -154,6 +174,32 @@ public class NetworkUtils {
         }
     }
 
+    /**
+     * Stores the favicon already decoded and scaled down to the largest size it is displayed at, as a small PNG
+     */
+    private static byte[] scaleFavicon(byte[] iconBytes) throws IOException {
+        Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
+        if (bitmap == null || bitmap.getWidth() <= 0 || bitmap.getHeight() <= 0) {
+            return new byte[0]; // not an image, no need to try to decode it each time
+        }
+
+        int size = UiUtils.dpToPixel(UiUtils.FAVICON_SIZE_IN_DP);
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= size && height <= size) {
+            return iconBytes;
+        }
+
+        // Keeps the aspect ratio, the longer side fits the size
+        int scaledWidth = width >= height ? size : Math.max(1, Math.round((float) width * size / height));
+        int scaledHeight = height >= width ? size : Math.max(1, Math.round((float) height * size / width));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true).compress(Bitmap.CompressFormat.PNG, 100, output);
+        output.close();
+        return output.toByteArray();
+    }
+
     public static HttpURLConnection setupConnection(String url) throws IOException {
         return setupConnection(new URL(url));
     }
@@ -163,6 +209,81 @@ public class NetworkUtils {
     }
 
     public static HttpURLConnection setupConnection(URL url, int cycle) throws IOException {
+        return setupConnection(url, cycle, null, null);
+    }
+
+    /**
+     * Opens a conditional GET: the server may answer 304 (not modified) if the given validators still match.
+     */
+    public static HttpURLConnection setupConnection(String url, String etag, String lastModified) throws IOException {
+        return setupConnection(new URL(url), 0, etag, lastModified);
+    }
+
+    public static HttpURLConnection setupConnection(URL url, int cycle, String etag, String lastModified) throws IOException {
+        HttpURLConnection connection = openConnection(url);
+
+        connection.setDoInput(true);
+        connection.setDoOutput(false);
+        connection.setRequestProperty("User-agent", USER_AGENT); // some feeds need this to work properly
+        connection.setConnectTimeout(30000);
+        connection.setReadTimeout(30000);
+        connection.setUseCaches(false);
+
+        connection.setRequestProperty("accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        if (etag != null && etag.length() > 0) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null && lastModified.length() > 0) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+        connection.connect();
+
+        String location = connection.getHeaderField("Location");
+
+        if (location != null
+                && (url.getProtocol().equals(_HTTP) && location.startsWith(Constants.HTTPS) || url.getProtocol().equals(_HTTPS)
+                && location.startsWith(Constants.HTTP))) {
+            // if location != null, the system-automatic redirect has failed
+            // which indicates a protocol change
+
+            connection.disconnect();
+
+            if (cycle < 5) {
+                return setupConnection(new URL(location), cycle + 1, etag, lastModified);
+            } else {
+                throw new IOException("Too many redirects.");
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Cheaply checks with a HEAD request and short timeouts if a server answers for this address.
+     */
+    public static boolean probe(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = openConnection(new URL(url));
+            connection.setRequestMethod(HEAD);
+            connection.setRequestProperty("User-agent", USER_AGENT);
+            connection.setConnectTimeout(PROBE_TIMEOUT);
+            connection.setReadTimeout(PROBE_TIMEOUT);
+            connection.setUseCaches(false);
+
+            int responseCode = connection.getResponseCode();
+            // some servers don't implement HEAD, but at least they are alive
+            return responseCode < HttpURLConnection.HTTP_BAD_REQUEST || responseCode == HttpURLConnection.HTTP_BAD_METHOD
+                    || responseCode == HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+        } catch (Throwable t) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static HttpURLConnection openConnection(URL url) throws IOException {
         Proxy proxy = null;
 
         ConnectivityManager connectivityManager = (ConnectivityManager) MainApplication.getContext()
@@ -191,35 +312,134 @@ public class NetworkUtils {
             }
         }
 
-        HttpURLConnection connection = proxy == null ? (HttpURLConnection) url.openConnection() : (HttpURLConnection) url.openConnection(proxy);
+        return proxy == null ? (HttpURLConnection) url.openConnection() : (HttpURLConnection) url.openConnection(proxy);
+    }
 
-        connection.setDoInput(true);
-        connection.setDoOutput(false);
-        connection.setRequestProperty("User-agent", "Mozilla AppleWebKit Chrome Safari"); // some feeds need this to work properly
-        connection.setConnectTimeout(30000);
-        connection.setReadTimeout(30000);
-        connection.setUseCaches(false);
+    /**
+     * @return the time until which the response stays fresh according to its Cache-Control or Expires headers, 0 if there is none
+     */
+    public static long getFreshUntil(HttpURLConnection connection) {
+        long now = System.currentTimeMillis();
+
+        String cacheControl = connection.getHeaderField(HEADER_CACHE_CONTROL);
+        if (cacheControl != null) {
+            cacheControl = cacheControl.toLowerCase();
+            if (cacheControl.contains(NO_CACHE) || cacheControl.contains(NO_STORE)) {
+                return 0;
+            }
 
-        connection.setRequestProperty("accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
-        connection.connect();
+            int index = cacheControl.indexOf(MAX_AGE);
+            if (index > -1) {
+                index += MAX_AGE.length();
+                int end = index;
+                while (end < cacheControl.length() && Character.isDigit(cacheControl.charAt(end))) {
+                    end++;
+                }
 
-        String location = connection.getHeaderField("Location");
+                try {
+                    long maxAge = Long.parseLong(cacheControl.substring(index, end)) - connection.getHeaderFieldInt(HEADER_AGE, 0);
+                    return maxAge > 0 ? now + maxAge * 1000 : 0;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
 
-        if (location != null
-                && (url.getProtocol().equals(_HTTP) && location.startsWith(Constants.HTTPS) || url.getProtocol().equals(_HTTPS)
-                && location.startsWith(Constants.HTTP))) {
-            // if location != null, the system-automatic redirect has failed
-            // which indicates a protocol change
+        long expires = connection.getHeaderFieldDate(HEADER_EXPIRES, 0);
+        return expires > now ? expires : 0;
+    }
 
-            connection.disconnect();
+    /**
+     * @return the time before which the server asked not to be called again (429 or 503 with a Retry-After header), 0 if there is none
+     */
+    public static long getRetryAfter(HttpURLConnection connection) {
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HTTP_TOO_MANY_REQUESTS && responseCode != HttpURLConnection.HTTP_UNAVAILABLE) {
+                return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
 
-            if (cycle < 5) {
-                return setupConnection(new URL(location), cycle + 1);
-            } else {
-                throw new IOException("Too many redirects.");
+        String retryAfter = connection.getHeaderField(HEADER_RETRY_AFTER);
+        if (retryAfter != null) {
+            try {
+                return System.currentTimeMillis() + Long.parseLong(retryAfter.trim()) * 1000; // in seconds
+            } catch (NumberFormatException e) {
+                return connection.getHeaderFieldDate(HEADER_RETRY_AFTER, 0); // or as an HTTP date
             }
         }
-        return connection;
+
+        return 0;
+    }
+
+    /**
+     * Finds the charset of an XML document from its byte order mark, its content type or finally its XML declaration. Only the first bytes
+     * of the stream are read and the stream is reset afterwards, so it must support mark/reset.
+     *
+     * @return the charset name, or null if there is absolutely no encoding information
+     */
+    public static String findCharset(InputStream inputStream, String contentType) throws IOException {
+        inputStream.mark(CHARSET_PROBE_SIZE);
+
+        byte[] buffer = new byte[CHARSET_PROBE_SIZE];
+        int length = 0;
+        int n;
+        while (length < CHARSET_PROBE_SIZE && (n = inputStream.read(buffer, length, CHARSET_PROBE_SIZE - length)) > 0) {
+            length += n;
+        }
+        inputStream.reset();
+
+        // Byte order mark
+        if (length >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+            return Constants.UTF8;
+        }
+        if (length >= 2 && (((buffer[0] & 0xFF) == 0xFE && (buffer[1] & 0xFF) == 0xFF) || ((buffer[0] & 0xFF) == 0xFF && (buffer[1] & 0xFF) == 0xFE))) {
+            return UTF16;
+        }
+
+        // Content type, before the XML declaration as the server may have transcoded the document, unless its charset is unknown
+        if (contentType != null) {
+            int index = contentType.indexOf(CHARSET);
+
+            if (index > -1) {
+                int index2 = contentType.indexOf(';', index);
+                String charset = (index2 > -1 ? contentType.substring(index + CHARSET.length(), index2) : contentType.substring(index
+                        + CHARSET.length())).replace("\"", "").trim();
+
+                if (isSupportedCharset(charset)) {
+                    return charset;
+                }
+            }
+        }
+
+        // XML declaration
+        String prolog = new String(buffer, 0, length, ISO_8859_1);
+        int declarationStart = prolog.indexOf(XML_DECLARATION_START);
+        if (declarationStart > -1) {
+            int declarationEnd = prolog.indexOf(XML_DECLARATION_END, declarationStart);
+            int encodingStart = prolog.indexOf(ENCODING, declarationStart);
+
+            if (encodingStart > -1 && (declarationEnd == -1 || encodingStart < declarationEnd) && encodingStart + ENCODING.length() < length) {
+                encodingStart += ENCODING.length();
+                char quote = prolog.charAt(encodingStart);
+                int encodingEnd = prolog.indexOf(quote, encodingStart + 1);
+
+                if ((quote == '"' || quote == '\'') && encodingEnd > encodingStart + 1) {
+                    return prolog.substring(encodingStart + 1, encodingEnd).trim();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isSupportedCharset(String charset) {
+        try {
+            return charset.length() > 0 && Charset.isSupported(charset);
+        } catch (IllegalCharsetNameException e) {
+            return false;
+        }
     }
 
     /**
@@ -54,6 +54,7 @@ public class PrefUtils {
     public static final String FONT_SIZE = "fontsize";
 
     public static final String LAST_SCHEDULED_REFRESH = "lastscheduledrefresh";
+    public static final String LAST_RETENTION = "lastretention";
 
     public static final String SHOW_READ = "show_read";
     
@@ -1,10 +1,44 @@
 package net.woocheol.inventoryman.utils;
 
+import java.util.HashSet;
+
 import android.app.Activity;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
 import android.util.TypedValue;
 import net.woocheol.inventoryman.MainApplication;
+import net.woocheol.inventoryman.provider.FeedData.FeedColumns;
 
 public class UiUtils {
+
+    private static final LruCache<String, Bitmap> FAVICON_CACHE = new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 32)) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    };
+    private static final Bitmap NO_FAVICON = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8); // remembers the feeds without icon
+    private static final String[] PROJECTION_ICON = new String[]{FeedColumns.ICON};
+
+    private static final HashSet<String> LOADING_FAVICONS = new HashSet<String>();
+    private static Handler sFaviconHandler;
+    private static Handler sMainHandler;
+
+    public interface OnFaviconLoadedListener {
+        void onFaviconLoaded(long feedId);
+    }
+
+    /**
+     * Largest size at which a favicon is displayed, they are stored at this size
+     */
+    static public final int FAVICON_SIZE_IN_DP = 24;
+
     static public void setPreferenceTheme(Activity a) {
         if (!PrefUtils.getBoolean(PrefUtils.LIGHT_THEME, true)) {
             a.setTheme(android.R.style.Theme_Holo);
@@ -14,4 +48,107 @@ public class UiUtils {
     static public int dpToPixel(int dp) {
         return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, MainApplication.getContext().getResources().getDisplayMetrics());
     }
+
+    /**
+     * Returns the icon of the feed scaled to the given size (0 to keep its own size), decoded only the first time it is needed
+     */
+    static public Bitmap getFaviconBitmap(long feedId, byte[] iconBytes, int sizeInPixel) {
+        String key = feedId + "_" + sizeInPixel;
+        Bitmap bitmap = FAVICON_CACHE.get(key);
+        if (bitmap == NO_FAVICON) {
+            bitmap = null;
+        }
+
+        if (bitmap == null && iconBytes != null && iconBytes.length > 0) {
+            bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
+
+            if (bitmap != null && bitmap.getHeight() > 0 && bitmap.getWidth() > 0) {
+                if (sizeInPixel > 0 && bitmap.getHeight() != sizeInPixel) {
+                    bitmap = Bitmap.createScaledBitmap(bitmap, sizeInPixel, sizeInPixel, false);
+                }
+                FAVICON_CACHE.put(key, bitmap);
+            } else {
+                bitmap = null;
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Same as above, but the icon is read from the feed only the first time, so the entries do not need to carry it
+     */
+    static public Bitmap getFaviconBitmap(long feedId, int sizeInPixel) {
+        String key = feedId + "_" + sizeInPixel;
+        Bitmap bitmap = FAVICON_CACHE.get(key);
+
+        if (bitmap == null) {
+            byte[] iconBytes = null;
+            Cursor cursor = MainApplication.getContext().getContentResolver().query(FeedColumns.CONTENT_URI(feedId), PROJECTION_ICON, null, null,
+                    null);
+            if (cursor.moveToFirst()) {
+                iconBytes = cursor.getBlob(0);
+            }
+            cursor.close();
+
+            bitmap = getFaviconBitmap(feedId, iconBytes, sizeInPixel);
+            if (bitmap == null) {
+                FAVICON_CACHE.put(key, NO_FAVICON);
+            }
+        }
+
+        return bitmap == NO_FAVICON ? null : bitmap;
+    }
+
+    /**
+     * Same as above without blocking, for the UI thread: if the icon is not in the cache yet, null is returned and it is read in the
+     * background. The listener is then called on the UI thread.
+     */
+    static public Bitmap getFaviconBitmap(final long feedId, final int sizeInPixel, final OnFaviconLoadedListener listener) {
+        final String key = feedId + "_" + sizeInPixel;
+        Bitmap bitmap = FAVICON_CACHE.get(key);
+        if (bitmap != null) {
+            return bitmap == NO_FAVICON ? null : bitmap;
+        }
+
+        synchronized (LOADING_FAVICONS) {
+            if (!LOADING_FAVICONS.add(key)) {
+                return null;
+            }
+
+            if (sFaviconHandler == null) {
+                HandlerThread thread = new HandlerThread("FaviconLoader", Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                sFaviconHandler = new Handler(thread.getLooper());
+                sMainHandler = new Handler(Looper.getMainLooper());
+            }
+        }
+
+        sFaviconHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                getFaviconBitmap(feedId, sizeInPixel);
+                synchronized (LOADING_FAVICONS) {
+                    LOADING_FAVICONS.remove(key);
+                }
+
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onFaviconLoaded(feedId);
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    static public void invalidateFavicon(long feedId) {
+        String prefix = feedId + "_";
+        for (String key : FAVICON_CACHE.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                FAVICON_CACHE.remove(key);
+            }
+        }
+    }
 }
@@ -24,13 +24,13 @@ import net.woocheol.inventoryman.R;
 import net.woocheol.inventoryman.provider.FeedData;
 import net.woocheol.inventoryman.utils.PrefUtils;
 import net.woocheol.inventoryman.utils.ThrottledContentObserver;
+import net.woocheol.inventoryman.utils.UiUtils;
 import android.appwidget.AppWidgetManager;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Handler;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
@@ -91,20 +91,13 @@ class WidgetFeedsFactory implements RemoteViewsService.RemoteViewsFactory {
             intent.putExtra(Constants.INTENT_FROM_WIDGET, true);
             row.setOnClickFillInIntent(android.R.id.content, intent);
 
-            if (!mCursor.isNull(2)) {
-                try {
-                    byte[] iconBytes = mCursor.getBlob(2);
+            try {
+                Bitmap bitmap = UiUtils.getFaviconBitmap(mCursor.getLong(2), 0);
 
-                    if (iconBytes != null && iconBytes.length > 0) {
-                        Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
-
-                        if (bitmap != null) {
-                            row.setImageViewBitmap(android.R.id.icon, bitmap);
-                        }
-                    }
-
-                } catch (Throwable ignored) {
+                if (bitmap != null) {
+                    row.setImageViewBitmap(android.R.id.icon, bitmap);
                 }
+            } catch (Throwable ignored) {
             }
         }
 
@@ -150,7 +143,8 @@ class WidgetFeedsFactory implements RemoteViewsService.RemoteViewsFactory {
         }
 
         ContentResolver cr = mContext.getContentResolver();
-        mCursor = cr.query(FeedData.EntryColumns.CONTENT_URI, new String[]{FeedData.EntryColumns.TITLE, FeedData.EntryColumns._ID, FeedData.FeedColumns.ICON}, selection.toString(), null,
+        mCursor = cr.query(FeedData.EntryColumns.CONTENT_URI, new String[]{FeedData.EntryColumns.TITLE, FeedData.EntryColumns._ID,
+                FeedData.EntryColumns.FEED_ID}, selection.toString(), null,
                 FeedData.EntryColumns.DATE + Constants.DB_DESC);
     }
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.parser;
+
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class FeedDateParserTest extends TestCase {
+
+    private static final long DATE = 1367412330000l; // 2013-05-01T12:45:30Z
+    private static final long DAY = 1367366400000l; // 2013-05-01T00:00:00Z
+
+    private static final Object[][] DATES = {
+            // RFC 822
+            {"Wed, 01 May 2013 12:45:30 GMT", DATE},
+            {"Wed, 1 May 2013 12:45:30 +0000", DATE},
+            {"01 May 2013 12:45:30 Z", DATE},
+            {"Wed, 01 May 13 12:45:30 GMT", DATE},
+            {"Wed, 01 May 2013 08:45:30 EDT", DATE},
+            {"Wed, 01 May 2013 14:45:30 +02:00", DATE},
+            {"Wed, 01 May 2013 14:45:30 GMT+02:00", DATE},
+            {"Wednesday, 01 May 2013 12:45:30 GMT", DATE},
+            {"Wed, 01-May-2013 12:45:30 GMT", DATE},
+            {"Wed, 01 May 2013 12:45 GMT", DATE - 30000},
+            {"Wed, 01 May 2013 12:45:30", DATE}, // local time
+            {"Wed, 01 May 2013 21:45:30 JST", DATE},
+            {"Wed, 01 May 2013 18:15:30 IST", DATE},
+            {"Wed, 01 May 2013 14:45:30 CEST", DATE},
+            {"Wed, 01 May 2013 09:15:30 NST", DATE},
+            // ISO 8601
+            {"2013-05-01T12:45:30Z", DATE},
+            {"2013-05-01T12:45:30.250Z", DATE + 250},
+            {"2013-05-01T14:45:30+02:00", DATE},
+            {"2013-05-01T07:45:30-0500", DATE},
+            {"2013-05-01 12:45:30", DATE},
+            {"2013-05-01", DAY},
+            // Whitespaces around
+            {"  2013-05-01T12:45:30Z\n", DATE},
+            {"2013-05-01 ", DAY},
+            {"2013-05-01\t\n", DAY},
+            {"Wed, 01 May 2013 12:45:30 GMT ", DATE},
+            // Invalid
+            {"", FeedDateParser.INVALID_DATE},
+            {"   ", FeedDateParser.INVALID_DATE},
+            {"yesterday", FeedDateParser.INVALID_DATE},
+            {"2013-13-01T12:45:30Z", FeedDateParser.INVALID_DATE},
+            {"2013-05-01T", FeedDateParser.INVALID_DATE},
+            {"Wed, 01 Foo 2013 12:45:30 GMT", FeedDateParser.INVALID_DATE},
+            {"Wed, 01 May 2013", FeedDateParser.INVALID_DATE},
+            {"Wed, 01 May 2013 12:45:30 XYZ", FeedDateParser.INVALID_DATE}, // unknown zone, neither UTC nor local time
+            {"Wed, 01 May 2013 12:45:30 XYZ+02:00", FeedDateParser.INVALID_DATE},
+            {"2013-05-01T12:45:30 FOO", FeedDateParser.INVALID_DATE},
+    };
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        super.tearDown();
+    }
+
+    public void testParse() {
+        for (Object[] date : DATES) {
+            assertEquals((String) date[0], ((Long) date[1]).longValue(), new FeedDateParser("test").parse((String) date[0]));
+        }
+    }
+
+    public void testParseBothFormatsInTheSameFeed() {
+        FeedDateParser parser = new FeedDateParser("test-mixed");
+        assertEquals(DATE, parser.parse("2013-05-01T12:45:30Z"));
+        assertEquals(DATE, parser.parse("Wed, 01 May 2013 12:45:30 GMT"));
+        assertEquals(DATE, parser.parse("2013-05-01T12:45:30Z"));
+    }
+
+    public void testParseStringBuilder() {
+        assertEquals(DATE, new FeedDateParser("test").parse(new StringBuilder("2013-05-01T12:45:30Z ")));
+    }
+
+    public void testLocalTime() {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+        assertEquals(DATE, new FeedDateParser("test").parse("2013-05-01T14:45:30"));
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class FeedFiltersTest extends TestCase {
+
+    private static final List<String> NONE = new ArrayList<String>(0);
+    private static final List<Pattern> NO_PATTERNS = new ArrayList<Pattern>(0);
+
+    public void testNoFilters() {
+        assertFalse(FeedFilters.NO_FILTERS.isEntryFiltered("title", "content"));
+        assertFalse(FeedFilters.NO_FILTERS.isEntryFiltered(null, null));
+    }
+
+    public void testTitleAndContentKeywords() {
+        FeedFilters filters = new FeedFilters(Arrays.asList("sport"), Arrays.asList("casino"), NO_PATTERNS, NO_PATTERNS);
+
+        assertTrue(filters.isEntryFiltered("Latest sport news", "nothing"));
+        assertTrue(filters.isEntryFiltered("Nothing", "Play at the casino"));
+        assertFalse(filters.isEntryFiltered("Casino", "sport")); // each keyword only applies to its own part
+        assertFalse(filters.isEntryFiltered("Sport", "Casino")); // case sensitive
+        assertFalse(filters.isEntryFiltered(null, null));
+    }
+
+    public void testOverlappingKeywords() {
+        FeedFilters filters = new FeedFilters(Arrays.asList("he", "she", "his", "hers"), NONE, NO_PATTERNS, NO_PATTERNS);
+
+        assertTrue(filters.isEntryFiltered("ushers", null));
+        assertTrue(filters.isEntryFiltered("ashe", null));
+        assertTrue(filters.isEntryFiltered("this", null));
+        assertFalse(filters.isEntryFiltered("hi s", null));
+        assertFalse(filters.isEntryFiltered("", null));
+
+        // A keyword only found through a failure link
+        filters = new FeedFilters(Arrays.asList("abcd", "bc"), NONE, NO_PATTERNS, NO_PATTERNS);
+        assertTrue(filters.isEntryFiltered("abce", null));
+        assertFalse(filters.isEntryFiltered("abdc", null));
+    }
+
+    public void testEmptyKeyword() {
+        FeedFilters filters = new FeedFilters(Arrays.asList(""), NONE, NO_PATTERNS, NO_PATTERNS);
+
+        assertTrue(filters.isEntryFiltered("anything", null));
+        assertTrue(filters.isEntryFiltered("", null));
+        assertFalse(filters.isEntryFiltered(null, "anything"));
+    }
+
+    public void testPatterns() {
+        FeedFilters filters = new FeedFilters(NONE, NONE, Arrays.asList(Pattern.compile("^\\[Ad\\]")), Arrays.asList(Pattern.compile("\\d{4}-\\d{4}")));
+
+        assertTrue(filters.isEntryFiltered("[Ad] Buy now", null));
+        assertFalse(filters.isEntryFiltered("Not an [Ad]", null));
+        assertTrue(filters.isEntryFiltered(null, "Call 1234-5678"));
+        assertFalse(filters.isEntryFiltered("Call 1234-5678", "Call 12-34"));
+    }
+
+    public void testKeywordsAgainstContains() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            ArrayList<String> keywords = new ArrayList<String>();
+            int keywordCount = 1 + random.nextInt(5);
+            for (int i = 0; i < keywordCount; i++) {
+                keywords.add(randomText(random, 1 + random.nextInt(4)));
+            }
+            FeedFilters filters = new FeedFilters(keywords, NONE, NO_PATTERNS, NO_PATTERNS);
+
+            for (int i = 0; i < 20; i++) {
+                String text = randomText(random, random.nextInt(30));
+                boolean expected = false;
+                for (String keyword : keywords) {
+                    expected |= text.contains(keyword);
+                }
+                assertEquals(keywords + " in " + text, expected, filters.isEntryFiltered(text, null));
+            }
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(3)));
+        }
+        return builder.toString();
+    }
+}
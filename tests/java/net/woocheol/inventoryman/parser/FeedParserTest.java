@@ -0,0 +1,181 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+public class FeedParserTest extends TestCase {
+
+    private static final String FEED_URL = "http://site.com/feed.xml";
+
+    private static final String RSS = "<?xml version=\"1.0\"?><rss version=\"2.0\"><channel><title>Feed</title><link>http://site.com/</link>"
+            + "<item><title>First</title><link>/a/1</link><description>One</description><author>Bob</author>"
+            + "<pubDate>Wed, 01 May 2013 12:00:00 GMT</pubDate></item>"
+            + "<item><title>Second</title><guid>g2</guid><description>Two</description><pubDate>Tue, 30 Apr 2013 12:00:00 GMT</pubDate></item>"
+            + "</channel></rss>";
+
+    /**
+     * Saves the entries like the database would, by uid with their content hash
+     */
+    private static class RecordingSink implements FeedSink {
+        final HashMap<String, Long> saved = new HashMap<String, Long>();
+        final ArrayList<FeedParser.Entry> inserted = new ArrayList<FeedParser.Entry>();
+        final ArrayList<FeedParser.Entry> updated = new ArrayList<FeedParser.Entry>();
+        boolean parsed = false;
+
+        public boolean isEntryFiltered(String title, String content) {
+            return false;
+        }
+
+        public boolean isKnownEntry(String uid) {
+            return saved.containsKey(uid);
+        }
+
+        public boolean isUnchangedEntry(String uid, long contentHash) {
+            return saved.get(uid) == contentHash;
+        }
+
+        public void insertEntry(FeedParser.Entry entry) {
+            inserted.add(entry);
+            saved.put(entry.uid, entry.contentHash);
+        }
+
+        public void updateEntry(FeedParser.Entry entry) {
+            updated.add(entry);
+            saved.put(entry.uid, entry.contentHash);
+        }
+
+        public void onFeedParsed(FeedParser parser) {
+            parsed = true;
+        }
+
+        void parse(String feed, String imageUrlPrefix) throws Exception {
+            inserted.clear();
+            updated.clear();
+            FeedParser parser = new FeedParser(this, "1", FEED_URL, new Date(0), new Date(0));
+            parser.setImageUrlPrefix(imageUrlPrefix);
+            parser.parse(new StringReader(feed));
+        }
+    }
+
+    public void testEntryUid() {
+        String uid = FeedParser.getEntryUid("http://site.com/a/1", null, "g1");
+        assertEquals(32, uid.length());
+        assertTrue(uid.matches("[0-9a-f]+"));
+        assertEquals(uid, FeedParser.getEntryUid("http://site.com/a/1", null, "g1"));
+
+        assertFalse(uid.equals(FeedParser.getEntryUid("http://site.com/a/2", null, "g1")));
+        assertFalse(uid.equals(FeedParser.getEntryUid("http://site.com/a/1", "http://site.com/a.mp3", "g1")));
+        assertFalse(uid.equals(FeedParser.getEntryUid("http://site.com/a/1", null, "g2")));
+        assertFalse(uid.equals(FeedParser.getEntryUid("http://site.com/a/1", null, null)));
+
+        // The parts are separated, they can't be shifted from one to the other
+        assertFalse(FeedParser.getEntryUid("a", "b", null).equals(FeedParser.getEntryUid("a", null, "b")));
+        assertFalse(FeedParser.getEntryUid("ab", null, null).equals(FeedParser.getEntryUid("a", "b", null)));
+
+        assertEquals(FeedParser.getEntryUid("", null, "g1"), FeedParser.getEntryUid(null, null, "g1"));
+    }
+
+    public void testInsertedEntries() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.parse(RSS, null);
+
+        assertTrue(sink.parsed);
+        assertEquals(2, sink.inserted.size());
+        assertEquals(0, sink.updated.size());
+
+        FeedParser.Entry first = sink.inserted.get(0);
+        assertEquals("First", first.title);
+        assertEquals("http://site.com/a/1", first.link); // relative link completed
+        assertEquals(FeedParser.getEntryUid("http://site.com/a/1", null, null), first.uid);
+        assertEquals("Bob", first.author);
+
+        FeedParser.Entry second = sink.inserted.get(1);
+        assertEquals(FeedParser.getEntryUid("", null, "g2"), second.uid);
+        assertFalse(first.contentHash == second.contentHash);
+    }
+
+    public void testUnchangedEntriesAreSkipped() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.parse(RSS, null);
+        sink.parse(RSS, null);
+
+        assertEquals(0, sink.inserted.size());
+        assertEquals(0, sink.updated.size());
+        assertTrue(sink.parsed);
+    }
+
+    public void testChangedEntriesAreUpdated() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.parse(RSS, null);
+
+        String feed = RSS.replace("<title>First</title>", "<title>First, edited</title>");
+        sink.parse(feed, null);
+        assertEquals(0, sink.inserted.size());
+        assertEquals(1, sink.updated.size());
+        assertEquals("First, edited", sink.updated.get(0).title);
+
+        feed = feed.replace("<description>Two</description>", "<description>Two, edited</description>");
+        sink.parse(feed, null);
+        assertEquals(1, sink.updated.size());
+        assertEquals("Second", sink.updated.get(0).title);
+
+        feed = feed.replace("<author>Bob</author>", "<author>Alice</author>");
+        sink.parse(feed, null);
+        assertEquals(1, sink.updated.size());
+        assertEquals("Alice", sink.updated.get(0).author);
+
+        sink.parse(feed, null);
+        assertEquals(0, sink.updated.size());
+    }
+
+    public void testImagesSettingChangesTheHash() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.parse(RSS, null);
+
+        // The saved content depends on whether the images are fetched, so all the entries are rewritten
+        sink.parse(RSS, "file:///images/");
+        assertEquals(2, sink.updated.size());
+
+        sink.parse(RSS, "file:///images/");
+        assertEquals(0, sink.updated.size());
+    }
+
+    public void testTitleEntities() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.parse(RSS.replace("<title>First</title>", "<title>Caf&amp;eacute; &amp;amp; cr&amp;#232;me&amp;nbsp;br&amp;#xFB;l&amp;eacute;e"
+                + " &amp;lt;3 &amp;apos;&amp;hellip;&amp;apos; &amp;unknown; &amp;eacute</title>"), null);
+
+        assertEquals("Caf\u00e9 & cr\u00e8me\u00a0br\u00fbl\u00e9e <3 '\u2026' &unknown; &eacute", sink.inserted.get(0).title);
+    }
+
+    public void testMediaTagsKeepTheDescription() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.parse(RSS.replace("<rss version=\"2.0\">", "<rss version=\"2.0\" xmlns:media=\"http://search.yahoo.com/mrss/\">").replace(
+                "<description>One</description>", "<description>One</description><media:content url=\"http://site.com/a.jpg\">"
+                        + "<media:description>Caption</media:description></media:content>"), null);
+
+        assertEquals("One", sink.inserted.get(0).content);
+    }
+}
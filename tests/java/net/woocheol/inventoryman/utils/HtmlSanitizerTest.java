@@ -0,0 +1,97 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.woocheol.inventoryman.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class HtmlSanitizerTest extends TestCase {
+
+    private static final String PREFIX = "file:///images/##ID##";
+
+    private static final String[][] CONTENTS = {
+            // Spans and blockquotes
+            {"  <p>Hello <SPAN class=x>world</span></p>  ", "<p>Hello world</p>"},
+            {"<blockquote>quote</BLOCKQUOTE>", "<div>quote</div>"},
+            {"<blockquote cite='x'>quote</blockquote>", "<div cite='x'>quote</div>"},
+            // Unbalanced divs
+            {"<div>open <div>inner</div>", "open <div>inner</div>"},
+            {"</div>text<div class='a'>in</div></div>", "text<div class='a'>in</div>"},
+            {"<div><div><div></div>", "<div></div>"},
+            // Ads
+            {"<div class=\"mf-viral\"><table border='0'><tr>ad</tr>\nkept", "\nkept"},
+            {"<div class=\"mf-viral\">not an ad</div>", "<div class=\"mf-viral\">not an ad</div>"},
+            // Urls
+            {"<a href='//host.com/page'>link</a>", "<a href='http://host.com/page'>link</a>"},
+            {"<a href=\"http://host.com/page\">link</a>", "<a href=\"http://host.com/page\">link</a>"},
+            // Not tags
+            {"a < b and c > d", "a < b and c > d"},
+            {"<!-- <span> -->text", "<!-- <span> -->text"},
+            {"unfinished <b", "unfinished <b"},
+            {"", ""},
+    };
+
+    public void testSanitize() {
+        for (String[] content : CONTENTS) {
+            assertEquals(content[0], content[1], HtmlSanitizer.sanitize(content[0], PREFIX, null));
+        }
+    }
+
+    public void testImages() {
+        ArrayList<String> images = new ArrayList<String>();
+        assertEquals("<p><img src=\"" + PREFIX + "a.png\"/><img alt='' src='" + PREFIX + "b.jpg'></p>",
+                HtmlSanitizer.sanitize("<p><img src=\"http://host/a.png\"/><img alt='' src='//host/b.jpg'></p>", PREFIX, images));
+        assertEquals(Arrays.asList("http://host/a.png", "http://host/b.jpg"), images);
+    }
+
+    public void testImagesNotFetched() {
+        assertEquals("<img src='http://host/a.png'>", HtmlSanitizer.sanitize("<img src='//host/a.png'>", PREFIX, null));
+    }
+
+    public void testImageFileName() {
+        ArrayList<String> images = new ArrayList<String>();
+        assertEquals("<img src=\"" + PREFIX + "a" + HtmlSanitizer.PERCENT_REPLACE + "2520b" + HtmlSanitizer.PERCENT_REPLACE + "253Fc.png\">",
+                HtmlSanitizer.sanitize("<img src=\"http://host/a b%3Fc.png\">", PREFIX, images));
+        assertEquals(Arrays.asList("http://host/a%20b%3Fc.png"), images);
+    }
+
+    public void testLazyLoadedImage() {
+        ArrayList<String> images = new ArrayList<String>();
+        assertEquals("<img class=x src=\"" + PREFIX + "real.jpg\"/>",
+                HtmlSanitizer.sanitize("<img class=x src=\"data:blank\" original-src=\"//cdn/real.jpg\"/>", PREFIX, images));
+        assertEquals(Arrays.asList("http://cdn/real.jpg"), images);
+    }
+
+    public void testLongContent() {
+        StringBuilder content = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("<div><span>").append(i).append("</span>");
+            expected.append("<div>").append(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            content.append("</div>");
+            expected.append("</div>");
+        }
+        assertEquals(expected.toString(), HtmlSanitizer.sanitize(content.toString(), PREFIX, null));
+    }
+}
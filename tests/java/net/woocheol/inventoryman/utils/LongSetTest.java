@@ -0,0 +1,141 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.utils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class LongSetTest extends TestCase {
+
+    public void testAddContainsRemove() {
+        LongSet set = new LongSet();
+        assertTrue(set.isEmpty());
+
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertEquals(1, set.size());
+
+        assertTrue(set.remove(42));
+        assertFalse(set.remove(42));
+        assertFalse(set.contains(42));
+        assertTrue(set.isEmpty());
+    }
+
+    public void testZeroAndNegativeValues() {
+        LongSet set = new LongSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        assertTrue(Arrays.equals(new long[]{Long.MIN_VALUE, -1, 0}, values));
+
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertEquals(2, set.size());
+    }
+
+    public void testRemoveKeepsTheProbeSequences() {
+        LongSet set = new LongSet();
+        // Consecutive ids, with the following ones shifted back when one is removed in the middle of a cluster
+        for (long id = 1; id <= 1000; id++) {
+            set.add(id);
+        }
+        for (long id = 1; id <= 1000; id += 3) {
+            assertTrue(set.remove(id));
+        }
+        for (long id = 1; id <= 1000; id++) {
+            assertEquals(String.valueOf(id), id % 3 != 1, set.contains(id));
+        }
+        assertEquals(666, set.size());
+    }
+
+    public void testRehashAndClear() {
+        LongSet set = new LongSet();
+        for (long id = 0; id < 10000; id++) {
+            set.add(id * 1024); // same low bits
+        }
+        assertEquals(10000, set.size());
+        for (long id = 0; id < 10000; id++) {
+            assertTrue(set.contains(id * 1024));
+        }
+        assertEquals(10000, set.toArray().length);
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(1024));
+        assertTrue(set.add(1024));
+    }
+
+    public void testAddAll() {
+        LongSet set = new LongSet();
+        set.add(1);
+        set.add(2);
+        LongSet other = new LongSet();
+        other.add(2);
+        other.add(0);
+        other.add(3);
+
+        set.addAll(other);
+        assertEquals(4, set.size());
+        for (long id = 0; id <= 3; id++) {
+            assertTrue(set.contains(id));
+        }
+    }
+
+    public void testAgainstHashSet() {
+        Random random = new Random(42);
+        LongSet set = new LongSet();
+        HashSet<Long> expected = new HashSet<Long>();
+
+        for (int i = 0; i < 200000; i++) {
+            long value = random.nextInt(2000) - 100; // small range, so many collisions and removals of present values
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.add(value), set.add(value));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(value), set.remove(value));
+                    break;
+                default:
+                    assertEquals(expected.contains(value), set.contains(value));
+                    break;
+            }
+            assertEquals(expected.size(), set.size());
+        }
+
+        long[] values = set.toArray();
+        assertEquals(expected.size(), values.length);
+        for (long value : values) {
+            assertTrue(expected.contains(value));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * FeedEx
+ *
+ * Copyright (c) 2012-2013 Frederic Julian
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.woocheol.inventoryman.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class NetworkUtilsTest extends TestCase {
+
+    private static final String LATIN1_DECLARATION = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><rss/>";
+
+    public void testByteOrderMarkFirst() throws Exception {
+        byte[] utf8 = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '<', 'r', 's', 's', '/', '>'};
+        assertEquals("UTF-8", NetworkUtils.findCharset(stream(utf8), "text/xml; charset=ISO-8859-1"));
+
+        byte[] utf16 = {(byte) 0xFE, (byte) 0xFF, 0, '<'};
+        assertEquals("UTF-16", NetworkUtils.findCharset(stream(utf16), "text/xml; charset=ISO-8859-1"));
+        utf16 = new byte[]{(byte) 0xFF, (byte) 0xFE, '<', 0};
+        assertEquals("UTF-16", NetworkUtils.findCharset(stream(utf16), null));
+    }
+
+    public void testContentTypeBeforeXmlDeclaration() throws Exception {
+        assertEquals("UTF-8", NetworkUtils.findCharset(stream(LATIN1_DECLARATION), "text/xml; charset=UTF-8"));
+        assertEquals("windows-1252", NetworkUtils.findCharset(stream(LATIN1_DECLARATION), "text/xml;charset=\"windows-1252\"; format=rss"));
+    }
+
+    public void testXmlDeclaration() throws Exception {
+        assertEquals("ISO-8859-1", NetworkUtils.findCharset(stream(LATIN1_DECLARATION), null));
+        assertEquals("ISO-8859-1", NetworkUtils.findCharset(stream(LATIN1_DECLARATION), "text/xml"));
+        assertEquals("ISO-8859-1", NetworkUtils.findCharset(stream(LATIN1_DECLARATION), "text/xml; charset="));
+        assertEquals("windows-1251", NetworkUtils.findCharset(stream("<?xml version='1.0' encoding='windows-1251'?>"), null));
+
+        // An unknown charset in the content type is ignored
+        assertEquals("ISO-8859-1", NetworkUtils.findCharset(stream(LATIN1_DECLARATION), "text/xml; charset=no-such-charset"));
+        assertEquals("ISO-8859-1", NetworkUtils.findCharset(stream(LATIN1_DECLARATION), "text/xml; charset=bad name"));
+    }
+
+    public void testNoEncodingInformation() throws Exception {
+        assertNull(NetworkUtils.findCharset(stream("<?xml version=\"1.0\"?><rss/>"), "text/xml"));
+        assertNull(NetworkUtils.findCharset(stream("<rss/><!-- encoding=\"UTF-8\" -->"), null)); // not in a declaration
+        assertNull(NetworkUtils.findCharset(stream(""), null));
+    }
+
+    public void testStreamIsReset() throws Exception {
+        InputStream inputStream = stream(LATIN1_DECLARATION);
+        NetworkUtils.findCharset(inputStream, null);
+
+        byte[] start = new byte[5];
+        assertEquals(5, inputStream.read(start));
+        assertEquals("<?xml", new String(start, "ISO-8859-1"));
+    }
+
+    private static InputStream stream(String text) throws Exception {
+        return stream(text.getBytes("ISO-8859-1"));
+    }
+
+    private static InputStream stream(byte[] bytes) {
+        return new BufferedInputStream(new ByteArrayInputStream(bytes));
+    }
+}